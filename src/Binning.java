@@ -0,0 +1,186 @@
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class holds the bin boundaries of continuous attributes for histogram splitting.
+ * It's built once per tree from the tree's training data, every node of the tree then shares the same bins, so
+ * sibling histograms can be derived from their parent's histogram.
+ */
+class Binning {
+    // Bin boundaries for each attribute, sorted ascending. NULL if the attribute is not binned.
+    // A value belongs to bin b if cuts[b - 1] < value <= cuts[b]. Missing values(NaN) belong to the extra bin
+    // numOfBins(attrIdx) after all others.
+    double[][] cuts;
+
+    /**
+     * Constructor for Binning, bins are formed by equal frequency over the tree's sample of the training data.
+     * If an attribute has no more distinct values than bins, every distinct value gets its own bin, which makes
+     * histogram splitting on this attribute the same as exact splitting.
+     * @param data The training data of the tree.
+     * @param chosenAttributes A boolean array indicates the attributes that user choose to use/ignore.
+     * @param numOfBins The maximum number of bins per continuous attribute.
+     * @param weights Weight of each row in the tree's bootstrap sample, a row counts as many times as it's drawn.
+     *                NULL if every row has weight 1.
+     */
+    Binning(Dataset data, List<Boolean> chosenAttributes, int numOfBins, int[] weights) {
+        this.cuts = new double[data.numOfAttributes()][];
+
+        for (int attrIdx = 0; attrIdx < data.numOfAttributes(); attrIdx ++) {
+            if (data.typeSpecification.get(attrIdx) || !chosenAttributes.get(attrIdx)) {
+                continue;
+            }
+
+            double[] values = sample(data.continuous[attrIdx], data.size, weights);
+            Arrays.sort(values);
+
+            // Missing values are sorted last, bins are formed over the others.
+            int n = values.length;
+            while (n > 0 && Double.isNaN(values[n - 1])) {
+                n --;
+            }
+
+            int distinct = n == 0 ? 0 : 1;
+            for (int i = 1; i < n; i ++) {
+                if (values[i] != values[i - 1]) {
+                    distinct ++;
+                }
+            }
+
+            List<Double> boundaries = new ArrayList<>();
+            if (distinct <= numOfBins) {
+                // Every boundary between two distinct values.
+                for (int i = 1; i < n; i ++) {
+                    if (values[i] != values[i - 1]) {
+                        boundaries.add((values[i - 1] + values[i]) / 2.0);
+                    }
+                }
+            } else {
+                // Equal frequency boundaries, skipping those falling inside a run of equal values.
+                for (int b = 1; b < numOfBins; b ++) {
+                    int i = (int) ((long) b * n / numOfBins);
+                    if (values[i] == values[i - 1]) {
+                        continue;
+                    }
+                    double boundary = (values[i - 1] + values[i]) / 2.0;
+                    if (boundaries.isEmpty() || boundaries.get(boundaries.size() - 1) < boundary) {
+                        boundaries.add(boundary);
+                    }
+                }
+            }
+
+            this.cuts[attrIdx] = new double[boundaries.size()];
+            for (int b = 0; b < boundaries.size(); b ++) {
+                this.cuts[attrIdx][b] = boundaries.get(b);
+            }
+        }
+    }
+
+    /**
+     * A utility to draw the values of a column in a bootstrap sample, each row's value repeated by its weight.
+     * @param column The column.
+     * @param size The number of rows.
+     * @param weights Weight of each row, NULL if every row has weight 1.
+     * @return The sampled values.
+     */
+    private static double[] sample(double[] column, int size, int[] weights) {
+        if (weights == null) {
+            return Arrays.copyOf(column, size);
+        }
+        int n = 0;
+        for (int row = 0; row < size; row ++) {
+            n += weights[row];
+        }
+        double[] values = new double[n];
+        int i = 0;
+        for (int row = 0; row < size; row ++) {
+            for (int w = 0; w < weights[row]; w ++) {
+                values[i ++] = column[row];
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Constructor for Binning with given bin boundaries.
+     * @param cuts Bin boundaries for each attribute.
+     */
+    private Binning(double[][] cuts) {
+        this.cuts = cuts;
+    }
+
+    /**
+     * Write the bin boundaries, e.g. to pass them to mappers.
+     * @param out The output.
+     * @throws IOException In case of IOException.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeInt(this.cuts.length);
+        for (double[] boundaries: this.cuts) {
+            out.writeInt(boundaries == null ? -1 : boundaries.length);
+            if (boundaries != null) {
+                for (double boundary: boundaries) {
+                    out.writeDouble(boundary);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read bin boundaries written by write().
+     * @param in The input.
+     * @return The binning.
+     * @throws IOException In case of IOException.
+     */
+    static Binning read(DataInput in) throws IOException {
+        double[][] cuts = new double[in.readInt()][];
+        for (int attrIdx = 0; attrIdx < cuts.length; attrIdx ++) {
+            int length = in.readInt();
+            if (length < 0) {
+                continue;
+            }
+            cuts[attrIdx] = new double[length];
+            for (int b = 0; b < length; b ++) {
+                cuts[attrIdx][b] = in.readDouble();
+            }
+        }
+        return new Binning(cuts);
+    }
+
+    /**
+     * Get the number of bins of an attribute, the bin of missing values is not included.
+     * @param attrIdx The attribute index.
+     * @return The number of bins.
+     */
+    int numOfBins(int attrIdx) {
+        return this.cuts[attrIdx].length + 1;
+    }
+
+    /**
+     * Find the bin of a continuous value.
+     * @param attrIdx The attribute index.
+     * @param value The continuous value.
+     * @return The bin index, i.e. the number of boundaries strictly less than the value. numOfBins(attrIdx) if
+     *         the value is missing.
+     */
+    int bin(int attrIdx, double value) {
+        double[] boundaries = this.cuts[attrIdx];
+        if (Double.isNaN(value)) {
+            return boundaries.length + 1;
+        }
+        int low = 0;
+        int high = boundaries.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (boundaries[mid] < value) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,639 @@
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.LocalFileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is the compiled, read-only form of trained decision trees for prediction.
+ * Nodes of all trees are laid out in preorder in parallel primitive buffers, so a prediction is an iterative walk
+ * over a few buffers instead of a recursion over Node objects.
+ * A node's left child is always the next node, only the right child's offset is stored.
+ *
+ * It's also the model persisted by RFMapReduce, in a binary format that is memory mapped when loading:
+ * ===============================================================================================================
+ * | int magic, int version
+ * | int numOfAttributes, byte categorical[numOfAttributes]
+ * | dictionary labels, dictionary categories for each categorical attribute
+ * |     (a dictionary is int size, then int length and UTF-8 bytes for each string)
+ * | int numOfTrees, int numOfNodes
+ * | int roots[numOfTrees], int feature[numOfNodes], double split[numOfNodes], int right[numOfNodes],
+ * | int label[numOfNodes], byte missingLeft[numOfNodes]
+ * ===============================================================================================================
+ * All values are big-endian. The node buffers of a mapped file are views over it, nothing is copied or parsed per
+ * node, and the dictionaries are only decoded when they're first used.
+ * Version 1 files have no missingLeft, rows missing a continuous attribute go right at every node.
+ */
+public class CompiledForest {
+    // Identifies a forest model file.
+    private static final int MAGIC = 0x52464D44;
+
+    // Version of the forest model file format.
+    private static final int VERSION = 2;
+
+    // Size of the read buffer in bytes, for model files that are streamed.
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    // Splitting attribute of each node. -1 for leaf nodes.
+    IntBuffer feature;
+
+    // Decision of each node, the threshold for continuous attributes or the category id for categorical ones.
+    DoubleBuffer split;
+
+    // Offset of each node's right child. 0 for leaf nodes.
+    IntBuffer right;
+
+    // Default direction of each node, 1 if rows missing the node's continuous attribute go left, otherwise 0.
+    ByteBuffer missingLeft;
+
+    // Label id of each leaf node. -1 for non-leaf nodes.
+    IntBuffer label;
+
+    // Offset of each tree's root node.
+    int[] roots;
+
+    // Attributes' type(categorical/continuous) specification.
+    boolean[] categorical;
+
+    // Dictionary of labels, label ids in leaf nodes refer to it. NULL until the dictionaries are decoded.
+    private Dictionary labelDictionary;
+
+    // Dictionary of each categorical attribute, category ids in decisions refer to them. NULL until the
+    // dictionaries are decoded.
+    private Dictionary[] categoryDictionaries;
+
+    // The dictionaries section of a mapped model file, NULL once the dictionaries are decoded.
+    private ByteBuffer dictionaries;
+
+    /**
+     * Constructor for CompiledForest, with buffers already laid out.
+     */
+    CompiledForest(IntBuffer feature, DoubleBuffer split, IntBuffer right, ByteBuffer missingLeft, IntBuffer label, int[] roots, boolean[] categorical, Dictionary labelDictionary, Dictionary[] categoryDictionaries) {
+        this.feature = feature;
+        this.split = split;
+        this.right = right;
+        this.missingLeft = missingLeft;
+        this.label = label;
+        this.roots = roots;
+        this.categorical = categorical;
+        this.labelDictionary = labelDictionary;
+        this.categoryDictionaries = categoryDictionaries;
+    }
+
+    /**
+     * A utility to create a forest with empty heap buffers, to be laid out.
+     * @param numOfNodes The number of nodes.
+     * @param numOfTrees The number of trees.
+     * @param categorical Attributes' type(categorical/continuous) specification.
+     * @param labelDictionary Dictionary of labels.
+     * @param categoryDictionaries Dictionary of each categorical attribute.
+     * @return The forest.
+     */
+    private static CompiledForest allocate(int numOfNodes, int numOfTrees, boolean[] categorical, Dictionary labelDictionary, Dictionary[] categoryDictionaries) {
+        return new CompiledForest(IntBuffer.allocate(numOfNodes), DoubleBuffer.allocate(numOfNodes), IntBuffer.allocate(numOfNodes),
+                ByteBuffer.allocate(numOfNodes), IntBuffer.allocate(numOfNodes), new int[numOfTrees], categorical, labelDictionary, categoryDictionaries);
+    }
+
+    /**
+     * @return Dictionary of labels, label ids in leaf nodes refer to it.
+     */
+    synchronized Dictionary labelDictionary() {
+        decodeDictionaries();
+        return this.labelDictionary;
+    }
+
+    /**
+     * @param attrIdx The attribute index.
+     * @return Dictionary of a categorical attribute, category ids in decisions refer to it. NULL for continuous
+     *         attributes.
+     */
+    synchronized Dictionary categoryDictionary(int attrIdx) {
+        decodeDictionaries();
+        return this.categoryDictionaries[attrIdx];
+    }
+
+    /**
+     * Decode the dictionaries of a mapped model file, if they aren't yet.
+     */
+    private void decodeDictionaries() {
+        if (this.dictionaries == null) {
+            return;
+        }
+        this.labelDictionary = readDictionary(this.dictionaries);
+        this.categoryDictionaries = new Dictionary[this.categorical.length];
+        for (int attrIdx = 0; attrIdx < this.categorical.length; attrIdx ++) {
+            if (this.categorical[attrIdx]) {
+                this.categoryDictionaries[attrIdx] = readDictionary(this.dictionaries);
+            }
+        }
+        this.dictionaries = null;
+    }
+
+    /**
+     * Compile trained trees. All trees must be trained on datasets sharing the same dictionaries.
+     * @param trees The root nodes of trained trees.
+     * @param schema A dataset whose dictionaries are shared by the trees' training data.
+     * @return The compiled forest.
+     */
+    static CompiledForest compile(List<Node> trees, Dataset schema) {
+        int numOfNodes = 0;
+        for (Node root: trees) {
+            numOfNodes += countNodes(root);
+        }
+
+        boolean[] categorical = new boolean[schema.numOfAttributes()];
+        for (int attrIdx = 0; attrIdx < categorical.length; attrIdx ++) {
+            categorical[attrIdx] = schema.typeSpecification.get(attrIdx);
+        }
+
+        CompiledForest forest = allocate(numOfNodes, trees.size(), categorical, schema.labelDictionary, schema.categoryDictionaries);
+
+        int offset = 0;
+        for (int i = 0; i < trees.size(); i ++) {
+            forest.roots[i] = offset;
+            offset = forest.layout(trees.get(i), offset);
+        }
+        return forest;
+    }
+
+    /**
+     * Count the nodes of a tree.
+     * @param node The tree's root node.
+     * @return The number of nodes.
+     */
+    private static int countNodes(Node node) {
+        if (node.left == null && node.right == null) {
+            return 1;
+        }
+        return 1 + countNodes(node.left) + countNodes(node.right);
+    }
+
+    /**
+     * Lay out a tree in preorder.
+     * @param node The tree's root node.
+     * @param offset The offset for the root node.
+     * @return The offset after the tree's last node.
+     */
+    private int layout(Node node, int offset) {
+        if (node.left == null && node.right == null) {
+            this.feature.put(offset, -1);
+            this.label.put(offset, node.label);
+            return offset + 1;
+        }
+        this.feature.put(offset, node.bestAttribute);
+        this.split.put(offset, this.categorical[node.bestAttribute] ? node.category : node.threshold);
+        this.missingLeft.put(offset, (byte) (!this.categorical[node.bestAttribute] && node.missingLeft ? 1 : 0));
+        this.label.put(offset, -1);
+        int next = layout(node.left, offset + 1);
+        this.right.put(offset, next);
+        return layout(node.right, next);
+    }
+
+    /**
+     * @return The number of trees.
+     */
+    public int numOfTrees() {
+        return this.roots.length;
+    }
+
+    /**
+     * @return The number of nodes of all trees.
+     */
+    int numOfNodes() {
+        return this.feature.limit();
+    }
+
+    /**
+     * Walk a tree with a row to its leaf.
+     * @param tree The tree index.
+     * @param data The dataset of the row, sharing the dictionaries of the forest.
+     * @param row The row.
+     * @return The offset of the leaf node.
+     */
+    int leaf(int tree, Dataset data, int row) {
+        int node = this.roots[tree];
+        int attrIdx;
+        while ((attrIdx = this.feature.get(node)) >= 0) {
+            boolean goesLeft;
+            if (this.categorical[attrIdx]) {
+                goesLeft = data.categorical[attrIdx][row] == (int) this.split.get(node);
+            } else {
+                double value = data.continuous[attrIdx][row];
+                goesLeft = value <= this.split.get(node) || (this.missingLeft.get(node) != 0 && Double.isNaN(value));
+            }
+            node = goesLeft ? node + 1 : this.right.get(node);
+        }
+        return node;
+    }
+
+    /**
+     * Predict a row with one tree.
+     * @param tree The tree index.
+     * @param data The dataset of the row, sharing the dictionaries of the forest.
+     * @param row The row.
+     * @return The predicted label id.
+     */
+    int predict(int tree, Dataset data, int row) {
+        return this.label.get(leaf(tree, data, row));
+    }
+
+    /**
+     * Take a majority vote of all trees for a row.
+     * @param data The dataset of the row, sharing the dictionaries of the forest.
+     * @param row The row.
+     * @param votes Votes of each label id, reset and filled by this method. Its length must be at least the
+     *              number of labels.
+     * @return The majority label id, the smallest id wins a tie.
+     */
+    int vote(Dataset data, int row, int[] votes) {
+        for (int i = 0; i < votes.length; i ++) {
+            votes[i] = 0;
+        }
+        for (int tree = 0; tree < this.roots.length; tree ++) {
+            votes[predict(tree, data, row)] ++;
+        }
+        return majority(votes);
+    }
+
+    /**
+     * Find the majority of votes.
+     * @param votes Votes of each label id.
+     * @return The majority label id, the smallest id wins a tie.
+     */
+    static int majority(int[] votes) {
+        int majority = 0;
+        for (int i = 1; i < votes.length; i ++) {
+            if (votes[i] > votes[majority]) {
+                majority = i;
+            }
+        }
+        return majority;
+    }
+
+    /**
+     * Write the forest in the binary model format.
+     * @param out The output stream, not closed by this method.
+     * @throws IOException In case of IOException.
+     */
+    public void write(OutputStream out) throws IOException {
+        // Header and dictionaries, they are small so they are written field by field.
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(this.categorical.length);
+        for (boolean c: this.categorical) {
+            header.writeByte(c ? 1 : 0);
+        }
+        writeDictionary(header, labelDictionary());
+        for (int attrIdx = 0; attrIdx < this.categorical.length; attrIdx ++) {
+            if (this.categorical[attrIdx]) {
+                writeDictionary(header, categoryDictionary(attrIdx));
+            }
+        }
+        header.flush();
+
+        // Nodes.
+        int numOfNodes = numOfNodes();
+        ByteBuffer nodes = ByteBuffer.allocate(4 * 2 + 4 * this.roots.length + (4 + 8 + 4 + 4 + 1) * numOfNodes);
+        nodes.putInt(this.roots.length).putInt(numOfNodes);
+        nodes.asIntBuffer().put(this.roots);
+        nodes.position(nodes.position() + 4 * this.roots.length);
+        nodes.asIntBuffer().put(this.feature.duplicate());
+        nodes.position(nodes.position() + 4 * numOfNodes);
+        nodes.asDoubleBuffer().put(this.split.duplicate());
+        nodes.position(nodes.position() + 8 * numOfNodes);
+        nodes.asIntBuffer().put(this.right.duplicate());
+        nodes.position(nodes.position() + 4 * numOfNodes);
+        nodes.asIntBuffer().put(this.label.duplicate());
+        nodes.position(nodes.position() + 4 * numOfNodes);
+        nodes.put(this.missingLeft.duplicate());
+        out.write(nodes.array());
+    }
+
+    /**
+     * Write the forest in the binary model format to a file, e.g. on HDFS.
+     * @param fs The file system.
+     * @param path The file path, overwritten if it exists.
+     * @throws IOException In case of IOException.
+     */
+    public void write(FileSystem fs, Path path) throws IOException {
+        try (FSDataOutputStream out = fs.create(path, true)) {
+            write(out);
+        }
+    }
+
+    /**
+     * A utility to write a dictionary.
+     * @param out The output stream.
+     * @param dictionary The dictionary.
+     * @throws IOException In case of IOException.
+     */
+    static void writeDictionary(DataOutputStream out, Dictionary dictionary) throws IOException {
+        out.writeInt(dictionary.size());
+        for (int id = 0; id < dictionary.size(); id ++) {
+            byte[] string = dictionary.decode(id).getBytes(StandardCharsets.UTF_8);
+            out.writeInt(string.length);
+            out.write(string);
+        }
+    }
+
+    /**
+     * Load a forest from a local model file, the file is memory mapped and the forest's node buffers are views over
+     * it. The mapping stays valid after the file is closed.
+     * @param file The model file.
+     * @return The forest.
+     * @throws IOException In case of IOException, or if the file is not a forest model file.
+     */
+    public static CompiledForest load(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            return map(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Load a forest from a model file, e.g. on HDFS. Files on the local file system are memory mapped, others are
+     * streamed into the node buffers.
+     * @param fs The file system.
+     * @param path The model file path.
+     * @return The forest.
+     * @throws IOException In case of IOException, or if the file is not a forest model file.
+     */
+    public static CompiledForest load(FileSystem fs, Path path) throws IOException {
+        if (fs instanceof LocalFileSystem) {
+            return load(((LocalFileSystem) fs).pathToFile(path));
+        }
+        try (FSDataInputStream in = fs.open(path)) {
+            return read(new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE)));
+        }
+    }
+
+    /**
+     * Serve a forest in the binary model format from a buffer, e.g. a mapped file. Node buffers are views over the
+     * buffer, dictionaries are skipped until they're used.
+     * @param buffer The buffer positioned at the start of the model.
+     * @return The forest.
+     * @throws IOException If the buffer doesn't hold a forest model.
+     */
+    private static CompiledForest map(ByteBuffer buffer) throws IOException {
+        if (buffer.remaining() < 8 || buffer.getInt() != MAGIC) {
+            throw new IOException("Not a forest model file.");
+        }
+        int version = buffer.getInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported forest model version " + version + ".");
+        }
+
+        boolean[] categorical = new boolean[buffer.getInt()];
+        for (int attrIdx = 0; attrIdx < categorical.length; attrIdx ++) {
+            categorical[attrIdx] = buffer.get() != 0;
+        }
+        ByteBuffer dictionaries = buffer.slice();
+        int start = buffer.position();
+        skipDictionary(buffer);
+        for (boolean c: categorical) {
+            if (c) {
+                skipDictionary(buffer);
+            }
+        }
+        dictionaries.limit(buffer.position() - start);
+
+        int numOfTrees = buffer.getInt();
+        int numOfNodes = buffer.getInt();
+        int[] roots = new int[numOfTrees];
+        buffer.asIntBuffer().get(roots);
+        buffer.position(buffer.position() + 4 * numOfTrees);
+        IntBuffer feature = section(buffer, 4 * numOfNodes).asIntBuffer();
+        DoubleBuffer split = section(buffer, 8 * numOfNodes).asDoubleBuffer();
+        IntBuffer right = section(buffer, 4 * numOfNodes).asIntBuffer();
+        IntBuffer label = section(buffer, 4 * numOfNodes).asIntBuffer();
+        ByteBuffer missingLeft = version > 1 ? section(buffer, numOfNodes) : ByteBuffer.allocate(numOfNodes);
+
+        CompiledForest forest = new CompiledForest(feature, split, right, missingLeft, label, roots, categorical, null, null);
+        forest.dictionaries = dictionaries;
+        return forest;
+    }
+
+    /**
+     * A utility to cut a section off the front of a buffer.
+     * @param buffer The buffer positioned at the section, positioned after it on return.
+     * @param length The length of the section in bytes.
+     * @return The section, sharing the buffer's content.
+     * @throws IOException If the buffer is shorter than the section.
+     */
+    private static ByteBuffer section(ByteBuffer buffer, int length) throws IOException {
+        if (buffer.remaining() < length) {
+            throw new IOException("Truncated forest model file.");
+        }
+        ByteBuffer section = buffer.slice();
+        section.limit(length);
+        buffer.position(buffer.position() + length);
+        return section;
+    }
+
+    /**
+     * Read a forest in the binary model format from a stream, the node values are read straight into heap buffers.
+     * @param in The input stream positioned at the start of the model.
+     * @return The forest.
+     * @throws IOException In case of IOException, or if the stream doesn't hold a forest model.
+     */
+    private static CompiledForest read(DataInputStream in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a forest model file.");
+        }
+        int version = in.readInt();
+        if (version != 1 && version != VERSION) {
+            throw new IOException("Unsupported forest model version " + version + ".");
+        }
+
+        boolean[] categorical = new boolean[in.readInt()];
+        for (int attrIdx = 0; attrIdx < categorical.length; attrIdx ++) {
+            categorical[attrIdx] = in.readByte() != 0;
+        }
+        Dictionary labelDictionary = readDictionary(in);
+        Dictionary[] categoryDictionaries = new Dictionary[categorical.length];
+        for (int attrIdx = 0; attrIdx < categorical.length; attrIdx ++) {
+            if (categorical[attrIdx]) {
+                categoryDictionaries[attrIdx] = readDictionary(in);
+            }
+        }
+
+        int numOfTrees = in.readInt();
+        int numOfNodes = in.readInt();
+        CompiledForest forest = allocate(numOfNodes, numOfTrees, categorical, labelDictionary, categoryDictionaries);
+        for (int tree = 0; tree < numOfTrees; tree ++) {
+            forest.roots[tree] = in.readInt();
+        }
+        for (int node = 0; node < numOfNodes; node ++) {
+            forest.feature.put(node, in.readInt());
+        }
+        for (int node = 0; node < numOfNodes; node ++) {
+            forest.split.put(node, in.readDouble());
+        }
+        for (int node = 0; node < numOfNodes; node ++) {
+            forest.right.put(node, in.readInt());
+        }
+        for (int node = 0; node < numOfNodes; node ++) {
+            forest.label.put(node, in.readInt());
+        }
+        if (version > 1) {
+            in.readFully(forest.missingLeft.array());
+        }
+        return forest;
+    }
+
+    /**
+     * A utility to skip a dictionary without decoding its strings.
+     * @param buffer The buffer positioned at the dictionary, positioned after it on return.
+     */
+    private static void skipDictionary(ByteBuffer buffer) {
+        int size = buffer.getInt();
+        for (int id = 0; id < size; id ++) {
+            int length = buffer.getInt();
+            buffer.position(buffer.position() + length);
+        }
+    }
+
+    /**
+     * A utility to read a dictionary.
+     * @param buffer The buffer positioned at the dictionary.
+     * @return The dictionary.
+     */
+    static Dictionary readDictionary(ByteBuffer buffer) {
+        Dictionary dictionary = new Dictionary();
+        int size = buffer.getInt();
+        for (int id = 0; id < size; id ++) {
+            byte[] string = new byte[buffer.getInt()];
+            buffer.get(string);
+            dictionary.encode(new String(string, StandardCharsets.UTF_8));
+        }
+        return dictionary;
+    }
+
+    /**
+     * A utility to read a dictionary from a stream.
+     * @param in The input stream positioned at the dictionary.
+     * @return The dictionary.
+     * @throws IOException In case of IOException.
+     */
+    static Dictionary readDictionary(DataInput in) throws IOException {
+        Dictionary dictionary = new Dictionary();
+        int size = in.readInt();
+        for (int id = 0; id < size; id ++) {
+            byte[] string = new byte[in.readInt()];
+            in.readFully(string);
+            dictionary.encode(new String(string, StandardCharsets.UTF_8));
+        }
+        return dictionary;
+    }
+
+    /**
+     * Assemble forests into one forest, e.g. the trees written by each mapper. Each forest may have its own
+     * dictionaries, their ids are translated into the assembled forest's dictionaries.
+     * @param forests The forests, all with the same attributes.
+     * @return The assembled forest.
+     * @throws IOException If the forests don't have the same attributes.
+     */
+    public static CompiledForest merge(List<CompiledForest> forests) throws IOException {
+        boolean[] categorical = forests.get(0).categorical;
+        int numOfTrees = 0;
+        int numOfNodes = 0;
+        for (CompiledForest forest: forests) {
+            if (!Arrays.equals(forest.categorical, categorical)) {
+                throw new IOException("Forests with different attributes can't be assembled.");
+            }
+            numOfTrees += forest.roots.length;
+            numOfNodes += forest.numOfNodes();
+        }
+
+        Dictionary labelDictionary = new Dictionary();
+        Dictionary[] categoryDictionaries = new Dictionary[categorical.length];
+        for (int attrIdx = 0; attrIdx < categorical.length; attrIdx ++) {
+            if (categorical[attrIdx]) {
+                categoryDictionaries[attrIdx] = new Dictionary();
+            }
+        }
+        CompiledForest merged = allocate(numOfNodes, numOfTrees, categorical, labelDictionary, categoryDictionaries);
+
+        int treeOffset = 0;
+        int nodeOffset = 0;
+        for (CompiledForest forest: forests) {
+            // Translation from the forest's ids to the merged ids.
+            int[] labelIds = translate(forest.labelDictionary(), labelDictionary);
+            int[][] categoryIds = new int[categorical.length][];
+            for (int attrIdx = 0; attrIdx < categorical.length; attrIdx ++) {
+                if (categorical[attrIdx]) {
+                    categoryIds[attrIdx] = translate(forest.categoryDictionary(attrIdx), categoryDictionaries[attrIdx]);
+                }
+            }
+
+            for (int tree = 0; tree < forest.roots.length; tree ++) {
+                merged.roots[treeOffset + tree] = nodeOffset + forest.roots[tree];
+            }
+            for (int node = 0; node < forest.numOfNodes(); node ++) {
+                int attrIdx = forest.feature.get(node);
+                merged.feature.put(nodeOffset + node, attrIdx);
+                if (attrIdx < 0) {
+                    merged.label.put(nodeOffset + node, labelIds[forest.label.get(node)]);
+                } else {
+                    merged.label.put(nodeOffset + node, -1);
+                    merged.right.put(nodeOffset + node, nodeOffset + forest.right.get(node));
+                    merged.missingLeft.put(nodeOffset + node, forest.missingLeft.get(node));
+                    merged.split.put(nodeOffset + node, categorical[attrIdx]
+                            ? categoryIds[attrIdx][(int) forest.split.get(node)]
+                            : forest.split.get(node));
+                }
+            }
+            treeOffset += forest.roots.length;
+            nodeOffset += forest.numOfNodes();
+        }
+        return merged;
+    }
+
+    /**
+     * A utility to translate a dictionary's ids into another dictionary, adding missing strings to it.
+     * @param from The dictionary to translate from.
+     * @param to The dictionary to translate to.
+     * @return The id in the other dictionary for each id.
+     */
+    private static int[] translate(Dictionary from, Dictionary to) {
+        int[] ids = new int[from.size()];
+        for (int id = 0; id < from.size(); id ++) {
+            ids[id] = to.encode(from.decode(id));
+        }
+        return ids;
+    }
+
+    /**
+     * Create an empty dataset sharing the forest's dictionaries, e.g. for data to predict.
+     * @return The dataset.
+     */
+    Dataset newDataset() {
+        List<Boolean> typeSpecification = new ArrayList<>();
+        for (boolean c: this.categorical) {
+            typeSpecification.add(c);
+        }
+        Dictionary[] categoryDictionaries = new Dictionary[this.categorical.length];
+        for (int attrIdx = 0; attrIdx < this.categorical.length; attrIdx ++) {
+            categoryDictionaries[attrIdx] = categoryDictionary(attrIdx);
+        }
+        return new Dataset(typeSpecification, labelDictionary(), categoryDictionaries);
+    }
+}
@@ -0,0 +1,358 @@
+import org.apache.hadoop.io.Text;
+
+import java.util.Arrays;
+
+/**
+ * This class splits CSV lines into fields without creating a String per field, for every data loading path.
+ * A line is copied into a reused char buffer, each field is a range [start, end) of it, and fields are parsed
+ * straight from the buffer into doubles or dictionary ids.
+ * The delimiter is a literal string, not a regular expression. Like String.split, trailing empty fields are
+ * dropped. A tokenizer is reused line after line, it's not thread safe.
+ */
+class CsvTokenizer {
+    // Exact powers of ten for the fast path of parsing doubles.
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // Mantissas with more digits may not be exact doubles, they are parsed by Double.parseDouble.
+    private static final int MAX_DIGITS = 15;
+
+    // The only word that is a continuous value, besides an optional sign. "NaN" is a missing value anyway.
+    private static final String INFINITY = "Infinity";
+
+    // Data CSV file delimiter.
+    private final char[] delimiter;
+
+    // The current line.
+    private char[] chars = new char[256];
+    private int length;
+
+    // Start and end(exclusive) of each field in the current line.
+    private int[] starts = new int[16];
+    private int[] ends = new int[16];
+
+    // The number of fields in the current line.
+    private int numOfFields;
+
+    /**
+     * Constructor for CsvTokenizer.
+     * @param delimiter Data CSV file delimiter, a literal string.
+     */
+    CsvTokenizer(String delimiter) {
+        if (delimiter.isEmpty()) {
+            throw new IllegalArgumentException("The delimiter can't be empty.");
+        }
+        this.delimiter = delimiter.toCharArray();
+    }
+
+    /**
+     * Split a line into fields.
+     * @param line The line.
+     * @return The number of fields.
+     */
+    int tokenize(String line) {
+        ensureChars(line.length());
+        line.getChars(0, line.length(), this.chars, 0);
+        this.length = line.length();
+        return split();
+    }
+
+    /**
+     * Split a line into fields, ASCII lines are decoded without creating a String.
+     * @param line The line, UTF-8 bytes.
+     * @return The number of fields.
+     */
+    int tokenize(Text line) {
+        byte[] bytes = line.getBytes();
+        int n = line.getLength();
+        ensureChars(n);
+        for (int i = 0; i < n; i ++) {
+            if (bytes[i] < 0) {
+                return tokenize(line.toString());
+            }
+            this.chars[i] = (char) bytes[i];
+        }
+        this.length = n;
+        return split();
+    }
+
+    /**
+     * A utility to grow the char buffer.
+     * @param n The number of chars the buffer needs to hold.
+     */
+    private void ensureChars(int n) {
+        if (this.chars.length < n) {
+            this.chars = new char[Math.max(n, 2 * this.chars.length)];
+        }
+    }
+
+    /**
+     * Find the fields of the current line.
+     * @return The number of fields.
+     */
+    private int split() {
+        this.numOfFields = 0;
+        int from = 0;
+        while (true) {
+            int at = indexOfDelimiter(from);
+            if (at < 0) {
+                addField(from, this.length);
+                break;
+            }
+            addField(from, at);
+            from = at + this.delimiter.length;
+        }
+
+        // Trailing empty fields are dropped, an empty line has no field.
+        while (this.numOfFields > 0 && this.starts[this.numOfFields - 1] == this.ends[this.numOfFields - 1]) {
+            this.numOfFields --;
+        }
+        return this.numOfFields;
+    }
+
+    /**
+     * A utility to find the next delimiter.
+     * @param from The position to search from.
+     * @return The position of the delimiter, -1 if there is none.
+     */
+    private int indexOfDelimiter(int from) {
+        char first = this.delimiter[0];
+        int last = this.length - this.delimiter.length;
+        for (int i = from; i <= last; i ++) {
+            if (this.chars[i] != first) {
+                continue;
+            }
+            int j = 1;
+            while (j < this.delimiter.length && this.chars[i + j] == this.delimiter[j]) {
+                j ++;
+            }
+            if (j == this.delimiter.length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * A utility to record a field.
+     * @param start The start of the field.
+     * @param end The end(exclusive) of the field.
+     */
+    private void addField(int start, int end) {
+        if (this.numOfFields == this.starts.length) {
+            this.starts = Arrays.copyOf(this.starts, 2 * this.starts.length);
+            this.ends = Arrays.copyOf(this.ends, 2 * this.ends.length);
+        }
+        this.starts[this.numOfFields] = start;
+        this.ends[this.numOfFields] = end;
+        this.numOfFields ++;
+    }
+
+    /**
+     * @return The number of fields in the current line.
+     */
+    int numOfFields() {
+        return this.numOfFields;
+    }
+
+    /**
+     * Get a field as a String, for the few fields that need one, e.g. header names.
+     * @param field The field index.
+     * @return The field.
+     */
+    String string(int field) {
+        return new String(this.chars, this.starts[field], this.ends[field] - this.starts[field]);
+    }
+
+    /**
+     * Append a field to a builder, e.g. to project some fields of a line.
+     * @param field The field index.
+     * @param builder The builder.
+     */
+    void append(int field, StringBuilder builder) {
+        builder.append(this.chars, this.starts[field], this.ends[field] - this.starts[field]);
+    }
+
+    /**
+     * Get the id of a field in a dictionary, a new id is assigned if the field is new.
+     * @param field The field index.
+     * @param dictionary The dictionary.
+     * @return The id.
+     */
+    int encode(int field, Dictionary dictionary) {
+        return dictionary.encode(this.chars, this.starts[field], this.ends[field]);
+    }
+
+    /**
+     * Get the id of a field in a dictionary without assigning new ids.
+     * @param field The field index.
+     * @param dictionary The dictionary.
+     * @return The id, -1 if the field is not in the dictionary.
+     */
+    int lookup(int field, Dictionary dictionary) {
+        return dictionary.lookup(this.chars, this.starts[field], this.ends[field]);
+    }
+
+    /**
+     * Parse a field as a continuous value. Decimal comma is supported.
+     * @param field The field index.
+     * @return The continuous value, NaN if the field is empty or not a number, i.e. the value is missing.
+     */
+    double parseDouble(int field) {
+        return parseDouble(this.chars, this.starts[field], this.ends[field]);
+    }
+
+    /**
+     * Parse a value already split into a String as a continuous value, see parseDouble(int).
+     * @param value The raw value.
+     * @return The continuous value, NaN if the value is missing.
+     */
+    static double parseDouble(String value) {
+        char[] chars = value.toCharArray();
+        return parseDouble(chars, 0, chars.length);
+    }
+
+    /**
+     * Parse a range of chars as a continuous value.
+     * Plain decimals of up to 15 digits are parsed in place, exactly as Double.parseDouble would, other forms
+     * fall back to Double.parseDouble. Empty or malformed values are missing values, they are found without
+     * throwing, so bad data costs no more than good data.
+     * @param chars The chars.
+     * @param from The start of the value.
+     * @param end The end(exclusive) of the value.
+     * @return The continuous value, NaN if the value is missing.
+     */
+    private static double parseDouble(char[] chars, int from, int end) {
+        int i = from;
+        boolean negative = false;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            negative = chars[i] == '-';
+            i ++;
+        }
+
+        long mantissa = 0;
+        int digits = 0;
+        int exponent = 0;
+        boolean anyDigit = false;
+        boolean fraction = false;
+        for (; i < end; i ++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+                if (mantissa != 0 || c != '0') {
+                    if (++ digits > MAX_DIGITS) {
+                        return parseSlow(chars, from, end);
+                    }
+                    mantissa = 10 * mantissa + (c - '0');
+                }
+                if (fraction) {
+                    exponent --;
+                }
+            } else if ((c == '.' || c == ',') && !fraction) {
+                fraction = true;
+            } else {
+                break;
+            }
+        }
+        if (!anyDigit) {
+            return parseSlow(chars, from, end);
+        }
+        if (i < end && (chars[i] == 'e' || chars[i] == 'E')) {
+            i ++;
+            boolean negativeExponent = false;
+            if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+                negativeExponent = chars[i] == '-';
+                i ++;
+            }
+            int value = 0;
+            int expDigits = 0;
+            for (; i < end && chars[i] >= '0' && chars[i] <= '9' && expDigits < 4; i ++) {
+                value = 10 * value + (chars[i] - '0');
+                expDigits ++;
+            }
+            if (expDigits == 0) {
+                return parseSlow(chars, from, end);
+            }
+            exponent += negativeExponent ? -value : value;
+        }
+        if (i != end) {
+            return parseSlow(chars, from, end);
+        }
+
+        double value;
+        if (mantissa == 0) {
+            value = 0.0;
+        } else if (exponent >= 0 && exponent < POW10.length) {
+            value = mantissa * POW10[exponent];
+        } else if (exponent < 0 && -exponent < POW10.length) {
+            value = mantissa / POW10[-exponent];
+        } else {
+            return parseSlow(chars, from, end);
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parse a value that the fast path doesn't handle. Values that can't be numbers are checked first and
+     * returned as missing, only values that look like numbers are given to Double.parseDouble.
+     * @param chars The chars.
+     * @param from The start of the value.
+     * @param end The end(exclusive) of the value.
+     * @return The continuous value, NaN if the value is missing.
+     */
+    private static double parseSlow(char[] chars, int from, int end) {
+        // Surrounding whitespace is ignored, like Double.parseDouble.
+        while (from < end && chars[from] <= ' ') {
+            from ++;
+        }
+        while (end > from && chars[end - 1] <= ' ') {
+            end --;
+        }
+        if (!looksNumeric(chars, from, end)) {
+            return Double.NaN;
+        }
+        String data = new String(chars, from, end - from).replace(',', '.');
+        try {
+            return Double.parseDouble(data);
+        } catch (NumberFormatException e) {
+            // E.g. misplaced signs, rare enough to be left to the exception.
+            return Double.NaN;
+        }
+    }
+
+    /**
+     * A utility to check if a value can be a number: digits with signs, decimal separators and exponents, or
+     * an infinity.
+     * @param chars The chars.
+     * @param from The start of the value.
+     * @param end The end(exclusive) of the value.
+     * @return False if the value is surely not a number.
+     */
+    private static boolean looksNumeric(char[] chars, int from, int end) {
+        int i = from;
+        if (i < end && (chars[i] == '-' || chars[i] == '+')) {
+            i ++;
+        }
+        if (end - i == INFINITY.length()) {
+            boolean infinity = true;
+            for (int j = 0; j < INFINITY.length(); j ++) {
+                infinity = infinity && chars[i + j] == INFINITY.charAt(j);
+            }
+            if (infinity) {
+                return true;
+            }
+        }
+        boolean anyDigit = false;
+        for (; i < end; i ++) {
+            char c = chars[i];
+            if (c >= '0' && c <= '9') {
+                anyDigit = true;
+            } else if (c != '.' && c != ',' && c != 'e' && c != 'E' && c != '-' && c != '+') {
+                return false;
+            }
+        }
+        return anyDigit;
+    }
+}
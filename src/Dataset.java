@@ -0,0 +1,305 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is the columnar in-memory dataset, it replaces row objects with one primitive array per column.
+ * Each row is seperated as attributes and correspongding label(also called target attribute in some ID3
+ * algorithm tutorials).
+ * Continuous attributes are stored as double arrays, categorical attributes and labels are dictionary encoded
+ * as int arrays. Missing continuous values, empty or malformed in the raw data, are stored as NaN.
+ */
+class Dataset {
+    // Attributes' type(categorical/continuous) specification.
+    List<Boolean> typeSpecification;
+
+    // Values of each continuous attribute, continuous[attrIdx][row]. NULL for categorical attributes.
+    double[][] continuous;
+
+    // Category ids of each categorical attribute, categorical[attrIdx][row]. NULL for continuous attributes.
+    int[][] categorical;
+
+    // Label id of each row.
+    int[] labels;
+
+    // Dictionary of each categorical attribute. NULL for continuous attributes.
+    Dictionary[] categoryDictionaries;
+
+    // Dictionary of labels.
+    Dictionary labelDictionary;
+
+    // The number of rows.
+    int size;
+
+    // Whether rows only look up the dictionaries instead of extending them, e.g. test data sharing the
+    // dictionaries of training data or of a model. Unknown categories and labels are stored as -1 then.
+    boolean lookupOnly;
+
+    /**
+     * Constructor for an empty dataset with new dictionaries.
+     * @param typeSpecification Attributes' type(categorical/continuous) specification.
+     */
+    Dataset(List<Boolean> typeSpecification) {
+        this.typeSpecification = typeSpecification;
+        this.labelDictionary = new Dictionary();
+        this.categoryDictionaries = new Dictionary[typeSpecification.size()];
+        for (int attrIdx = 0; attrIdx < typeSpecification.size(); attrIdx ++) {
+            if (typeSpecification.get(attrIdx)) {
+                this.categoryDictionaries[attrIdx] = new Dictionary();
+            }
+        }
+        allocate(16);
+    }
+
+    /**
+     * Constructor for an empty dataset sharing the dictionaries of another dataset, so ids are comparable
+     * between them. E.g. test data shares the dictionaries of training data. The new dataset only looks up the
+     * shared dictionaries, so its rows never change the other dataset's ids.
+     * @param schema The dataset whose dictionaries are shared.
+     */
+    Dataset(Dataset schema) {
+        this.typeSpecification = schema.typeSpecification;
+        this.labelDictionary = schema.labelDictionary;
+        this.categoryDictionaries = schema.categoryDictionaries;
+        this.lookupOnly = true;
+        allocate(16);
+    }
+
+    /**
+     * Constructor for an empty dataset with given dictionaries, e.g. the dictionaries of a loaded model.
+     * @param typeSpecification Attributes' type(categorical/continuous) specification.
+     * @param labelDictionary Dictionary of labels.
+     * @param categoryDictionaries Dictionary of each categorical attribute.
+     */
+    Dataset(List<Boolean> typeSpecification, Dictionary labelDictionary, Dictionary[] categoryDictionaries) {
+        this.typeSpecification = typeSpecification;
+        this.labelDictionary = labelDictionary;
+        this.categoryDictionaries = categoryDictionaries;
+        allocate(16);
+    }
+
+    /**
+     * Allocate empty columns.
+     * @param capacity The number of rows the columns can hold.
+     */
+    private void allocate(int capacity) {
+        int n = this.typeSpecification.size();
+        this.continuous = new double[n][];
+        this.categorical = new int[n][];
+        for (int attrIdx = 0; attrIdx < n; attrIdx ++) {
+            if (this.typeSpecification.get(attrIdx)) {
+                this.categorical[attrIdx] = new int[capacity];
+            } else {
+                this.continuous[attrIdx] = new double[capacity];
+            }
+        }
+        this.labels = new int[capacity];
+        this.size = 0;
+    }
+
+    /**
+     * Make sure more rows can be added, doubling the columns until they fit.
+     * @param numOfRows The number of rows to be added.
+     */
+    void ensureCapacity(int numOfRows) {
+        if (this.size + numOfRows <= this.labels.length) {
+            return;
+        }
+        int capacity = Math.max(this.labels.length, 1);
+        while (capacity < this.size + numOfRows) {
+            capacity *= 2;
+        }
+        for (int attrIdx = 0; attrIdx < this.typeSpecification.size(); attrIdx ++) {
+            if (this.typeSpecification.get(attrIdx)) {
+                this.categorical[attrIdx] = Arrays.copyOf(this.categorical[attrIdx], capacity);
+            } else {
+                this.continuous[attrIdx] = Arrays.copyOf(this.continuous[attrIdx], capacity);
+            }
+        }
+        this.labels = Arrays.copyOf(this.labels, capacity);
+    }
+
+    /**
+     * @return The number of attributes, the label is not included.
+     */
+    int numOfAttributes() {
+        return this.typeSpecification.size();
+    }
+
+    /**
+     * Parse a continuous raw value.
+     * @param data The raw value, decimal comma is supported.
+     * @return The continuous value, NaN if it's empty or can't be parsed, i.e. the value is missing.
+     */
+    private static double parseContinuous(String data) {
+        return CsvTokenizer.parseDouble(data);
+    }
+
+    /**
+     * Add a row of raw data. The last column is as default the label. Unknown categories and labels are stored as
+     * -1 if the dataset is lookup only.
+     * @param tokens The raw values of the row.
+     * @return False if the row doesn't have one value per attribute plus the label, the row is skipped then.
+     */
+    boolean add(String[] tokens) {
+        if (tokens.length != this.typeSpecification.size() + 1) {
+            return false;
+        }
+        ensureCapacity(1);
+        int i;
+        for (i = 0; i < tokens.length - 1; i ++) {
+            if (this.typeSpecification.get(i)) { // Categorical
+                this.categorical[i][this.size] = this.lookupOnly
+                        ? this.categoryDictionaries[i].lookup(tokens[i])
+                        : this.categoryDictionaries[i].encode(tokens[i]);
+            } else { // Continuous
+                this.continuous[i][this.size] = parseContinuous(tokens[i]);
+            }
+        }
+        this.labels[this.size] = this.lookupOnly
+                ? this.labelDictionary.lookup(tokens[i])
+                : this.labelDictionary.encode(tokens[i]);
+        this.size ++;
+        return true;
+    }
+
+    /**
+     * Add a row of raw data to predict, its label is not needed. Categories that the dictionaries don't have are
+     * stored as -1 instead of being added, so they go to the right child of any categorical decision.
+     * @param tokens The raw values of the row, a trailing label column is ignored.
+     * @return False if the row doesn't have one value per attribute, the row is skipped then.
+     */
+    boolean addAttributes(String[] tokens) {
+        if (tokens.length < this.typeSpecification.size()) {
+            return false;
+        }
+        ensureCapacity(1);
+        for (int i = 0; i < this.typeSpecification.size(); i ++) {
+            if (this.typeSpecification.get(i)) { // Categorical
+                this.categorical[i][this.size] = this.categoryDictionaries[i].lookup(tokens[i]);
+            } else { // Continuous
+                this.continuous[i][this.size] = parseContinuous(tokens[i]);
+            }
+        }
+        this.labels[this.size] = -1;
+        this.size ++;
+        return true;
+    }
+
+    /**
+     * Add a row of raw data from a tokenized line, without creating a String per value. The last column is as
+     * default the label. Unknown categories and labels are stored as -1 if the dataset is lookup only.
+     * @param tokens The tokenizer holding the row.
+     * @return False if the row doesn't have one value per attribute plus the label, the row is skipped then.
+     */
+    boolean add(CsvTokenizer tokens) {
+        if (tokens.numOfFields() != this.typeSpecification.size() + 1) {
+            return false;
+        }
+        ensureCapacity(1);
+        int i;
+        for (i = 0; i < tokens.numOfFields() - 1; i ++) {
+            if (this.typeSpecification.get(i)) { // Categorical
+                this.categorical[i][this.size] = this.lookupOnly
+                        ? tokens.lookup(i, this.categoryDictionaries[i])
+                        : tokens.encode(i, this.categoryDictionaries[i]);
+            } else { // Continuous
+                this.continuous[i][this.size] = tokens.parseDouble(i);
+            }
+        }
+        this.labels[this.size] = this.lookupOnly
+                ? tokens.lookup(i, this.labelDictionary)
+                : tokens.encode(i, this.labelDictionary);
+        this.size ++;
+        return true;
+    }
+
+    /**
+     * Add a row of raw data to predict from a tokenized line, its label is not needed. Unknown categories are
+     * stored as -1 like addAttributes(String[]).
+     * @param tokens The tokenizer holding the row, a trailing label column is ignored.
+     * @return False if the row doesn't have one value per attribute, the row is skipped then.
+     */
+    boolean addAttributes(CsvTokenizer tokens) {
+        if (tokens.numOfFields() < this.typeSpecification.size()) {
+            return false;
+        }
+        ensureCapacity(1);
+        for (int i = 0; i < this.typeSpecification.size(); i ++) {
+            if (this.typeSpecification.get(i)) { // Categorical
+                this.categorical[i][this.size] = tokens.lookup(i, this.categoryDictionaries[i]);
+            } else { // Continuous
+                this.continuous[i][this.size] = tokens.parseDouble(i);
+            }
+        }
+        this.labels[this.size] = -1;
+        this.size ++;
+        return true;
+    }
+
+    /**
+     * Remove all rows, the columns and dictionaries are kept for reuse.
+     */
+    void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Copy a row from another dataset sharing the same dictionaries.
+     * @param other The dataset to copy from.
+     * @param row The row in the other dataset.
+     */
+    void add(Dataset other, int row) {
+        ensureCapacity(1);
+        for (int attrIdx = 0; attrIdx < this.typeSpecification.size(); attrIdx ++) {
+            if (this.typeSpecification.get(attrIdx)) {
+                this.categorical[attrIdx][this.size] = other.categorical[attrIdx][row];
+            } else {
+                this.continuous[attrIdx][this.size] = other.continuous[attrIdx][row];
+            }
+        }
+        this.labels[this.size] = other.labels[row];
+        this.size ++;
+    }
+
+    /**
+     * Get the label of a row.
+     * @param row The row.
+     * @return The label, NULL if it's unknown.
+     */
+    String label(int row) {
+        if (this.labels[row] < 0) {
+            return null;
+        }
+        return this.labelDictionary.decode(this.labels[row]);
+    }
+
+    /**
+     * Get the readable value of an attribute of a row.
+     * @param attrIdx The attribute index.
+     * @param row The row.
+     * @return The value, continuous values are printed as double. NULL for unknown categories.
+     */
+    String value(int attrIdx, int row) {
+        if (this.typeSpecification.get(attrIdx)) {
+            int id = this.categorical[attrIdx][row];
+            return id < 0 ? null : this.categoryDictionaries[attrIdx].decode(id);
+        } else {
+            return String.valueOf(this.continuous[attrIdx][row]);
+        }
+    }
+
+    /**
+     * For Mapper output.
+     * @param row The row.
+     * @param delimiter The delimiter between values.
+     * @return The row's values and label joined by the delimiter.
+     */
+    String toString(int row, String delimiter) {
+        StringBuilder builder = new StringBuilder();
+        for (int attrIdx = 0; attrIdx < this.typeSpecification.size(); attrIdx ++) {
+            builder.append(value(attrIdx, row)).append(delimiter);
+        }
+        builder.append(label(row));
+        return builder.toString();
+    }
+}
@@ -0,0 +1,316 @@
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * This class is the binary columnar file of a dataset, written once by RFConversion so later training and scoring
+ * jobs load the data without parsing any text.
+ * The format is as follows, the header is the same as the forest model file's:
+ * ===============================================================================================================
+ * | int magic, int version
+ * | int numOfAttributes, byte categorical[numOfAttributes]
+ * | dictionary labels, dictionary categories for each categorical attribute
+ * |     (a dictionary is int size, then int length and UTF-8 bytes for each string)
+ * | int numOfRows
+ * | for each attribute: double values[numOfRows] if continuous, int categoryIds[numOfRows] if categorical
+ * | int labelIds[numOfRows]
+ * ===============================================================================================================
+ * All values are big-endian. Columns are streamed from the file straight into the dataset's arrays.
+ */
+class DatasetFile {
+    // Suffix of dataset files, training and scoring jobs load input files with it as columnar.
+    static final String SUFFIX = ".rfd";
+
+    // Identifies a dataset file.
+    private static final int MAGIC = 0x52464454;
+
+    // Version of the dataset file format.
+    private static final int VERSION = 1;
+
+    // Size of the read buffer in bytes.
+    static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * A utility to tell a dataset file from a text file.
+     * @param path The file path.
+     * @return True if the file is a dataset file.
+     */
+    static boolean isDatasetFile(Path path) {
+        return path.getName().endsWith(SUFFIX);
+    }
+
+    /**
+     * Write a dataset in the binary columnar format.
+     * @param data The dataset.
+     * @param out The output stream, not closed by this method.
+     * @throws IOException In case of IOException.
+     */
+    static void write(Dataset data, OutputStream out) throws IOException {
+        int numOfAttributes = data.numOfAttributes();
+        DataOutputStream header = new DataOutputStream(out);
+        header.writeInt(MAGIC);
+        header.writeInt(VERSION);
+        header.writeInt(numOfAttributes);
+        for (int attrIdx = 0; attrIdx < numOfAttributes; attrIdx ++) {
+            header.writeByte(data.typeSpecification.get(attrIdx) ? 1 : 0);
+        }
+        CompiledForest.writeDictionary(header, data.labelDictionary);
+        for (int attrIdx = 0; attrIdx < numOfAttributes; attrIdx ++) {
+            if (data.typeSpecification.get(attrIdx)) {
+                CompiledForest.writeDictionary(header, data.categoryDictionaries[attrIdx]);
+            }
+        }
+        header.writeInt(data.size);
+        header.flush();
+
+        // Columns, one buffer per column.
+        for (int attrIdx = 0; attrIdx < numOfAttributes; attrIdx ++) {
+            if (data.typeSpecification.get(attrIdx)) {
+                out.write(toBytes(data.categorical[attrIdx], data.size));
+            } else {
+                ByteBuffer column = ByteBuffer.allocate(8 * data.size);
+                column.asDoubleBuffer().put(data.continuous[attrIdx], 0, data.size);
+                out.write(column.array());
+            }
+        }
+        out.write(toBytes(data.labels, data.size));
+    }
+
+    /**
+     * A utility to turn the first values of an int column into bytes.
+     * @param column The column.
+     * @param size The number of values.
+     * @return The bytes.
+     */
+    private static byte[] toBytes(int[] column, int size) {
+        ByteBuffer bytes = ByteBuffer.allocate(4 * size);
+        bytes.asIntBuffer().put(column, 0, size);
+        return bytes.array();
+    }
+
+    /**
+     * Load a dataset file, e.g. on HDFS, appending its rows to a dataset. The file is streamed, only the dataset's
+     * columns hold its values.
+     * @param fs The file system.
+     * @param path The dataset file path.
+     * @param data The dataset the rows are appended to, its dictionaries are extended with the file's strings
+     *             unless it's lookup only.
+     * @throws IOException In case of IOException, or if the file is not a dataset file of the same attributes.
+     */
+    static void load(FileSystem fs, Path path, Dataset data) throws IOException {
+        try (FSDataInputStream in = fs.open(path)) {
+            read(new DataInputStream(new BufferedInputStream(in, BUFFER_SIZE)), data);
+        }
+    }
+
+    /**
+     * Read a dataset in the binary columnar format, appending its rows to a dataset. The stream is left at the end
+     * of the dataset.
+     * @param in The input stream positioned at the start of the dataset.
+     * @param data The dataset the rows are appended to.
+     * @throws IOException In case of IOException, or if the stream doesn't hold a dataset of the same attributes.
+     */
+    static void read(DataInputStream in, Dataset data) throws IOException {
+        Header header = readHeader(in, data);
+        data.ensureCapacity(header.numOfRows);
+        for (int attrIdx = 0; attrIdx < data.numOfAttributes(); attrIdx ++) {
+            if (data.typeSpecification.get(attrIdx)) {
+                readIds(in, data.categorical[attrIdx], data.size, header.numOfRows, header.categoryIds[attrIdx]);
+            } else {
+                readValues(in, data.continuous[attrIdx], data.size, header.numOfRows);
+            }
+        }
+        readIds(in, data.labels, data.size, header.numOfRows, header.labelIds);
+        data.size += header.numOfRows;
+    }
+
+    /**
+     * Read the header of a dataset file, up to the columns.
+     * @param in The input stream positioned at the start of the dataset.
+     * @param data The dataset the rows will be appended to.
+     * @return The header.
+     * @throws IOException In case of IOException, or if the stream doesn't hold a dataset of the same attributes.
+     */
+    private static Header readHeader(DataInputStream in, Dataset data) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a dataset file.");
+        }
+        int version = in.readInt();
+        if (version != VERSION) {
+            throw new IOException("Unsupported dataset file version " + version + ".");
+        }
+
+        int numOfAttributes = in.readInt();
+        boolean sameAttributes = numOfAttributes == data.numOfAttributes();
+        for (int attrIdx = 0; attrIdx < numOfAttributes; attrIdx ++) {
+            boolean categorical = in.readByte() != 0;
+            sameAttributes = sameAttributes && categorical == data.typeSpecification.get(attrIdx);
+        }
+        if (!sameAttributes) {
+            throw new IOException("The dataset file has different attributes.");
+        }
+
+        // Translation from the file's ids to the dataset's ids.
+        Header header = new Header();
+        header.labelIds = translate(CompiledForest.readDictionary(in), data.labelDictionary, data.lookupOnly);
+        header.categoryIds = new int[numOfAttributes][];
+        for (int attrIdx = 0; attrIdx < numOfAttributes; attrIdx ++) {
+            if (data.typeSpecification.get(attrIdx)) {
+                header.categoryIds[attrIdx] = translate(CompiledForest.readDictionary(in),
+                        data.categoryDictionaries[attrIdx], data.lookupOnly);
+            }
+        }
+        header.numOfRows = in.readInt();
+        return header;
+    }
+
+    /**
+     * The header of a dataset file, as needed to read its columns into a dataset.
+     */
+    private static class Header {
+        // Translation from the file's label ids to the dataset's, NULL if the ids are the same.
+        int[] labelIds;
+
+        // Translation from the file's category ids to the dataset's for each categorical attribute, NULL if the
+        // ids are the same or for continuous attributes.
+        int[][] categoryIds;
+
+        // The number of rows.
+        int numOfRows;
+    }
+
+    /**
+     * Reader of a dataset file in chunks of rows, so a file larger than memory can be scored chunk by chunk. Each
+     * chunk seeks to its rows in every column, the file is never held whole.
+     */
+    static class Reader implements Closeable {
+        // The file.
+        private FSDataInputStream in;
+
+        // The file's header.
+        private Header header;
+
+        // Position of the first column in the file.
+        private long columnsStart;
+
+        // The next row to read.
+        private int next;
+
+        /**
+         * Open a dataset file and read its header.
+         * @param fs The file system.
+         * @param path The dataset file path.
+         * @param data The dataset the rows will be appended to, its dictionaries are extended with the file's
+         *             strings unless it's lookup only.
+         * @throws IOException In case of IOException, or if the file is not a dataset file of the same attributes.
+         */
+        Reader(FileSystem fs, Path path, Dataset data) throws IOException {
+            this.in = fs.open(path);
+            try {
+                this.header = readHeader(this.in, data);
+            } catch (IOException e) {
+                this.in.close();
+                throw e;
+            }
+            this.columnsStart = this.in.getPos();
+        }
+
+        /**
+         * @return The number of rows of the file.
+         */
+        int numOfRows() {
+            return this.header.numOfRows;
+        }
+
+        /**
+         * Append the next rows of the file to a dataset.
+         * @param data The dataset the rows are appended to, the one passed to the constructor or one sharing its
+         *             dictionaries.
+         * @param maxRows The maximum number of rows to read.
+         * @return The number of rows read, 0 after the last row.
+         * @throws IOException In case of IOException.
+         */
+        int read(Dataset data, int maxRows) throws IOException {
+            int numOfRows = Math.min(maxRows, this.header.numOfRows - this.next);
+            data.ensureCapacity(numOfRows);
+            long columnStart = this.columnsStart;
+            for (int attrIdx = 0; attrIdx < data.numOfAttributes(); attrIdx ++) {
+                if (data.typeSpecification.get(attrIdx)) {
+                    this.in.seek(columnStart + 4L * this.next);
+                    readIds(this.in, data.categorical[attrIdx], data.size, numOfRows, this.header.categoryIds[attrIdx]);
+                    columnStart += 4L * this.header.numOfRows;
+                } else {
+                    this.in.seek(columnStart + 8L * this.next);
+                    readValues(this.in, data.continuous[attrIdx], data.size, numOfRows);
+                    columnStart += 8L * this.header.numOfRows;
+                }
+            }
+            this.in.seek(columnStart + 4L * this.next);
+            readIds(this.in, data.labels, data.size, numOfRows, this.header.labelIds);
+            data.size += numOfRows;
+            this.next += numOfRows;
+            return numOfRows;
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.in.close();
+        }
+    }
+
+    /**
+     * A utility to read a continuous column.
+     * @param in The input stream positioned at the column.
+     * @param column The column to fill.
+     * @param from The first row to fill.
+     * @param numOfRows The number of rows.
+     * @throws IOException In case of IOException.
+     */
+    private static void readValues(DataInputStream in, double[] column, int from, int numOfRows) throws IOException {
+        for (int row = from; row < from + numOfRows; row ++) {
+            column[row] = in.readDouble();
+        }
+    }
+
+    /**
+     * A utility to read an id column and translate its ids.
+     * @param in The input stream positioned at the column.
+     * @param column The column to fill.
+     * @param from The first row to fill.
+     * @param numOfRows The number of rows.
+     * @param ids The translation, NULL if the ids are the same.
+     * @throws IOException In case of IOException.
+     */
+    private static void readIds(DataInputStream in, int[] column, int from, int numOfRows, int[] ids) throws IOException {
+        for (int row = from; row < from + numOfRows; row ++) {
+            int id = in.readInt();
+            column[row] = ids == null ? id : ids[id];
+        }
+    }
+
+    /**
+     * A utility to translate a dictionary's ids into another dictionary, adding missing strings to it unless it's
+     * only looked up.
+     * @param from The dictionary to translate from.
+     * @param to The dictionary to translate to.
+     * @param lookupOnly Indicate if missing strings are translated to -1 instead of being added.
+     * @return The id in the other dictionary for each id, NULL if every id is the same.
+     */
+    private static int[] translate(Dictionary from, Dictionary to, boolean lookupOnly) {
+        int[] ids = new int[from.size()];
+        boolean same = true;
+        for (int id = 0; id < from.size(); id ++) {
+            ids[id] = lookupOnly ? to.lookup(from.decode(id)) : to.encode(from.decode(id));
+            same = same && ids[id] == id;
+        }
+        return same ? null : ids;
+    }
+}
@@ -1,9 +1,9 @@
-import javafx.util.Pair;
-
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * Created by d_d on 2/21/17.
@@ -44,14 +44,22 @@ public class DecisionTree {
      * @param inRandomForest For RandomForest use indicator.
      */
     public DecisionTree(ArrayList<Boolean> typeSpecification, ArrayList<Boolean> chosenAttributes, String delimiter, boolean inRandomForest) {
-        this.trainData = new Entries();
-        this.testData = new Entries();
+        this.trainData = new Dataset(typeSpecification);
+        this.testData = new Dataset(this.trainData);
         this.typeSpecification = typeSpecification;
         this.chosenAttributes = chosenAttributes;
         this.delimiter = delimiter;
 
         this.inRandomForest = inRandomForest;
         this.attributesName = null;
+
+        this.histogramSplit = false;
+        this.numOfBins = 64;
+
+        this.random = new Random();
+        this.numOfThreads = 1;
+        this.forkThreshold = 10000;
+        this.offHeap = false;
     }
 
     // A boolean array indicates the attributes that user choose to use/ignore.
@@ -70,10 +78,10 @@ public class DecisionTree {
     private ArrayList<Boolean> typeSpecification;
 
     // Training Data.
-    public Entries trainData;
+    public Dataset trainData;
 
-    // Testing Data.
-    public Entries testData;
+    // Testing Data. It shares the dictionaries of training data.
+    public Dataset testData;
 
     // Decision Tree's root node.
     public Node root;
@@ -81,12 +89,50 @@ public class DecisionTree {
     // For visualization/output purpose.
     public Node start;
 
+    // The compiled tree used for prediction, produced after training.
+    public CompiledForest compiled;
+
     // The confusion matrix.
-    private Map<Pair<String, String>, Integer> confusionMatrix;
+    // It's a dense count array, confusionMatrix[actual label id][predicted label id].
+    private int[][] confusionMatrix;
 
     // Indicates the Random subspace in Random Forest.
     public int attrSubspaceNum;
 
+    // Use histogram splitting for continuous attributes instead of exact splitting.
+    public boolean histogramSplit;
+
+    // The maximum number of bins per continuous attribute for histogram splitting.
+    public int numOfBins;
+
+    // Random generator for attributes subspace selection in Random Forest. Set a seeded one for a reproducible tree.
+    public Random random;
+
+    // The number of threads growing subtrees concurrently. 1 to grow the tree sequentially.
+    public int numOfThreads;
+
+    // The minimum number of examples of a node whose attributes are evaluated and children are grown concurrently,
+    // smaller nodes are processed sequentially.
+    public int forkThreshold;
+
+    // The fork-join pool while growing the tree concurrently, NULL otherwise.
+    private ForkJoinPool pool;
+
+    // Weight of each training row, the number of times it's drawn into the bootstrap sample. Rows with weight 0
+    // are left out. NULL if every row has weight 1.
+    public int[] weights;
+
+    // Keep the training index(sorted orders and row buffers) in direct buffers outside the heap, so the heap only
+    // holds the tree and small bookkeeping.
+    public boolean offHeap;
+
+    // The presorted index of the whole training data, shared by the trees of a forest. NULL to build the tree's
+    // own index.
+    SortedIndex sharedIndex;
+
+    // The tree's bins for histogram splitting. NULL if exact splitting is used.
+    private Binning binning;
+
     /**
      * A utility function to read a CSV as a List of String Arrays, each element is a row.
      * @param filePath The CSV filepath.
@@ -94,28 +140,42 @@ public class DecisionTree {
      * @throws IOException In case of IOException.
      */
     public List<String[]> readCSV(String filePath, boolean header) throws IOException {
-        BufferedReader fileReader = new BufferedReader(new FileReader(filePath));
-        String line;
+        CsvTokenizer tokens = new CsvTokenizer(this.delimiter);
         List<String[]> entries = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(filePath))) {
+            String line;
 
-        // Process header;
-        if (header) {
-            this.attributesName = new ArrayList<>();
-            line = fileReader.readLine();
-
-            this.attributesName.addAll(Arrays.asList(line.split(this.delimiter)));
-        }
-        while ((line = fileReader.readLine()) != null) {
-
-            String[] tokens = line.split(this.delimiter);
-
-            if (tokens.length > 0) {
-                entries.add(tokens);
+            // Process header;
+            if (header && (line = fileReader.readLine()) != null) {
+                readHeader(line, tokens);
+            }
+            while ((line = fileReader.readLine()) != null) {
+                int n = tokens.tokenize(line);
+                if (n > 0) {
+                    String[] entry = new String[n];
+                    for (int i = 0; i < n; i ++) {
+                        entry[i] = tokens.string(i);
+                    }
+                    entries.add(entry);
+                }
             }
         }
         return entries;
     }
 
+    /**
+     * A utility function to read the attributes' names from the header.
+     * @param line The header line.
+     * @param tokens The tokenizer.
+     */
+    private void readHeader(String line, CsvTokenizer tokens) {
+        this.attributesName = new ArrayList<>();
+        int n = tokens.tokenize(line);
+        for (int i = 0; i < n; i ++) {
+            this.attributesName.add(tokens.string(i));
+        }
+    }
+
     /**
      * A utility function for loadData function, to add data to DecisionTree properties.
      * @param training Indicate if the data is training data.
@@ -123,20 +183,10 @@ public class DecisionTree {
      */
     private void loadDataUtil(boolean training, List<String[]> entries) {
         for (String[] s: entries) {
-            int i;
-
-            Entry newEntry = new Entry();
-            for (i = 0; i < s.length - 1; i ++) {
-                newEntry.attributes.add(new CellData(s[i], this.typeSpecification.get(i)));
-            }
-
-            // The last column is as default the label.
-            newEntry.label = s[i];
-
             if (training) {
-                this.trainData.entries.add(newEntry);
+                this.trainData.add(s);
             } else {
-                this.testData.entries.add(newEntry);
+                this.testData.add(s);
             }
         }
     }
@@ -145,13 +195,24 @@ public class DecisionTree {
      * A public method for user to load data for DecisionTree class.
      * NOTICE: Training data and test data need to be loaded seperately, label is as default the last column
      *         in the dataset.
+     * Rows are tokenized straight into the dataset, no String is created per value.
      * @param training  Indicate if the file is training data.
      * @param filePath  Indicate the filepath.
      * @throws IOException In case of IOException.
      */
     public void loadData(boolean training, String filePath, boolean header) throws IOException {
-        List<String[]> entries = readCSV(filePath, header);
-        loadDataUtil(training, entries);
+        Dataset data = training ? this.trainData : this.testData;
+        CsvTokenizer tokens = new CsvTokenizer(this.delimiter);
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(filePath))) {
+            String line;
+            if (header && (line = fileReader.readLine()) != null) {
+                readHeader(line, tokens);
+            }
+            while ((line = fileReader.readLine()) != null) {
+                tokens.tokenize(line);
+                data.add(tokens);
+            }
+        }
     }
 
     /**
@@ -167,76 +228,79 @@ public class DecisionTree {
     /**
      * The main ID3 recursive function. The pseudocode can be found at:
      * https://www.cs.swarthmore.edu/~meeden/cs63/f05/id3.html
-     * @param examples  The examples for next splitting.
+     * @param index The tree's presorted index.
+     * @param from  The start of the examples' range in the index for next splitting.
+     * @param to    The end(exclusive) of the examples' range in the index for next splitting.
      * @param attributes    The attributes for next splitting. (Remaining Attributes.)
+     * @param histogram The histogram of the examples, NULL if exact splitting is used.
+     * @param random The random generator of this subtree.
      * @return  The root node of the DecisionTree.
      */
-    private Node ID3(Entries examples, ArrayList<Integer> attributes){
-        Node node = new Node(examples, attributes, this.typeSpecification, this.chosenAttributes, this.inRandomForest, this.attrSubspaceNum);
+    private Node ID3(SortedIndex index, int from, int to, ArrayList<Integer> attributes, Histogram histogram, Random random){
+        Node node = new Node(index, from, to, attributes, this.typeSpecification, this.chosenAttributes, this.inRandomForest, this.attrSubspaceNum, this.binning, histogram, random, this.pool != null && to - from >= this.forkThreshold);
 
         // If current node is already consistent with examples, return.
         if (node.isConsistent) {
             return node;
 
         } else {
-            // If there's no longer attributes, no need to continue.
-            if (attributes.size() == 0) {
+            // If there's no longer attributes or no boundary to split, no need to continue.
+            if (attributes.size() == 0 || node.bestAttribute < 0) {
 
                 // There's no attributes to continue splitting though current node is not consistent, then
                 // take a majority vote for this leaf node's label.
-                node.label = Collections.max(node.labelsCount.entrySet(), Map.Entry.comparingByValue()).getKey();
+                node.label = node.majorityLabel();
                 return node;
 
             }
 
-            Entries newExamplesLeft = new Entries();
-            Entries newExampleRight = new Entries();
-
-            if (!this.typeSpecification.get(node.bestAttribute)) {
-                // Sort examples according to best splitting attribute, for splitting dataset later.
-                Collections.sort(examples.entries, new Comparator<Entry>() {
-                    @Override
-                    public int compare(Entry o1, Entry o2) {
-                        return new CellData().compare(o1.attributes.get(node.bestAttribute),
-                                o2.attributes.get(node.bestAttribute));
-                    }
-                });
-
-                // Split dataset according to decision of the best splitting attribute.
-                for (int i = 0; i < examples.entries.size(); i++) {
-                    Entry entryTemp = examples.entries.get(i);
-                    if ((Double) entryTemp.attributes.get(node.bestAttribute).value <= ((Double) node.decision.value)) {
-                        newExamplesLeft.entries.add(entryTemp);
-                    } else {
-                        newExampleRight.entries.add(entryTemp);
-                    }
-                }
-            } else {
-                // Split dataset according to decision of the best splitting attribute.
-                for (int i = 0; i < examples.entries.size(); i++) {
-                    Entry entryTemp = examples.entries.get(i);
-                    if ((entryTemp.attributes.get(node.bestAttribute).value).equals(node.decision.value)) {
-                        newExamplesLeft.entries.add(entryTemp);
-                    } else {
-                        newExampleRight.entries.add(entryTemp);
-                    }
-                }
-            }
+            // Split dataset according to decision of the best splitting attribute. Both children keep the
+            // sorted order of every attribute, so no sorting is needed here.
+            int mid = index.split(from, to, node);
 
             // Generating remaining attributes.
             ArrayList<Integer> newAttributes = new ArrayList<>(attributes);
             newAttributes.remove(Integer.valueOf(node.bestAttribute));
 
-            // If the dataset after splitting is not empty, then branching and grow the tree. Else end growing.
-            if (newExamplesLeft.entries.size() != 0) {
-                node.left = ID3(newExamplesLeft, newAttributes);
-            } else {
-                node.left = new Node();
+            // Only the smaller child's histogram is counted, the larger one is derived from the parent's.
+            Histogram leftHistogram = null;
+            Histogram rightHistogram = null;
+            if (node.histogram != null) {
+                if (mid - from <= to - mid) {
+                    leftHistogram = Histogram.build(index, from, mid, this.binning);
+                    rightHistogram = node.histogram.subtract(leftHistogram);
+                } else {
+                    rightHistogram = Histogram.build(index, mid, to, this.binning);
+                    leftHistogram = node.histogram.subtract(rightHistogram);
+                }
+                node.histogram = null;
             }
-            if (newExampleRight.entries.size() != 0) {
-                node.right = ID3(newExampleRight, newAttributes);
+
+            // Each child has its own random generator seeded here in a fixed order, so the tree is the same
+            // whether children are grown sequentially or concurrently.
+            final Random leftRandom = new Random(random.nextLong());
+            final Random rightRandom = new Random(random.nextLong());
+
+            // If the dataset after splitting is not empty, then branching and grow the tree. Else end growing
+            // with a leaf predicting current node's majority label.
+            if (mid == from) {
+                node.left = new Node(node.majorityLabel());
+                node.right = ID3(index, mid, to, newAttributes, rightHistogram, rightRandom);
+            } else if (mid == to) {
+                node.left = ID3(index, from, mid, newAttributes, leftHistogram, leftRandom);
+                node.right = new Node(node.majorityLabel());
+            } else if (this.pool != null && to - from >= this.forkThreshold) {
+                // Children own disjoint ranges of the index, so the left subtree is forked and grown concurrently
+                // while this thread grows the right subtree.
+                final int split = mid;
+                final Histogram histogramOfLeft = leftHistogram;
+                ForkJoinTask<Node> left = ForkJoinTask.adapt(
+                        () -> ID3(index, from, split, newAttributes, histogramOfLeft, leftRandom)).fork();
+                node.right = ID3(index, mid, to, newAttributes, rightHistogram, rightRandom);
+                node.left = left.join();
             } else {
-                node.right = new Node();
+                node.left = ID3(index, from, mid, newAttributes, leftHistogram, leftRandom);
+                node.right = ID3(index, mid, to, newAttributes, rightHistogram, rightRandom);
             }
 
             return node;
@@ -278,48 +342,26 @@ public class DecisionTree {
                     relation = " != ";
                 }
             }
+            String decision = this.typeSpecification.get(parent.bestAttribute)
+                    ? this.trainData.categoryDictionaries[parent.bestAttribute].decode(parent.category)
+                    : String.valueOf(parent.threshold);
+            String label = node.label < 0 ? null : this.trainData.labelDictionary.decode(node.label);
             if (this.attributesName == null) {
-                System.out.print("|Attr" + parent.bestAttribute + relation + parent.decision.value + "|Entropy: " + node.entropy + " : " + node.label + " ");
+                System.out.print("|Attr" + parent.bestAttribute + relation + decision + "|Entropy: " + node.entropy + " : " + label + " ");
             } else { // If the data CSV has a header.
-                System.out.print("|" + this.attributesName.get(parent.bestAttribute) + relation + parent.decision.value + "|Entropy: " + node.entropy + " : " + node.label + " ");
+                System.out.print("|" + this.attributesName.get(parent.bestAttribute) + relation + decision + "|Entropy: " + node.entropy + " : " + label + " ");
             }
         }
-        Iterator it = node.labelsCount.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pair = (Map.Entry)it.next();
-            String label = (String) pair.getKey();
-            Integer count = (Integer) pair.getValue();
-            System.out.print("[" + label + " : " + count + "]");
+        for (int i = 0; i < node.labelsCount.length; i ++) {
+            if (node.labelsCount[i] > 0) {
+                System.out.print("[" + this.trainData.labelDictionary.decode(i) + " : " + node.labelsCount[i] + "]");
+            }
         }
         System.out.print("\n");
         preorderTraversePrint(node, node.left, depth + 1, false, false);
         preorderTraversePrint(node, node.right, depth + 1, true, false);
     }
 
-    /**
-     * Using current test entry to traverse the built tree and return predicted label.
-     * @param entry Current test entry.
-     * @param node  The decision tree's root node.
-     * @return  The current test entry's predicted label.
-     */
-    private String getPrediction(Entry entry, Node node) {
-        if (node.left == null && node.right == null)
-            return node.label;
-        if (!this.typeSpecification.get(node.bestAttribute)) {
-            if (((Double) entry.attributes.get(node.bestAttribute).value) <= ((Double) node.decision.value)) {
-                return getPrediction(entry, node.left);
-            } else {
-                return getPrediction(entry, node.right);
-            }
-        } else {
-            if ((entry.attributes.get(node.bestAttribute).value).equals(node.decision.value)) {
-                return getPrediction(entry, node.left);
-            } else {
-                return getPrediction(entry, node.right);
-            }
-        }
-    }
-
     /**
      * A utility function to print n whitespaces.
      * @param n The number of whitespaces to print.
@@ -368,38 +410,38 @@ public class DecisionTree {
      * A utility to print confusion matrix.
      */
     public void confusionMatrixPrint() {
-        Map<String, Integer> labelsCount = this.root.labelsCount;
-        List<String> labels = new ArrayList<>();
+        int[] labelsCount = this.root.labelsCount;
+        List<Integer> labels = new ArrayList<>();
 
         int longest = 0;
-        Iterator it = labelsCount.entrySet().iterator();
-        while (it.hasNext()) {
-            String al = (String) ((Map.Entry) it.next()).getKey();
-            longest = al.length() > longest ? al.length() : longest;
-            if (!labels.contains(al)) {
-                labels.add(al);
+        for (int i = 0; i < labelsCount.length; i ++) {
+            if (labelsCount[i] == 0) {
+                continue;
             }
+            String al = this.trainData.labelDictionary.decode(i);
+            longest = al.length() > longest ? al.length() : longest;
+            labels.add(i);
         }
         printMatrixHead(longest, labels.size());
         printDelimeter();
         printWhitespaces(longest);
         printDelimeter();
-        for (String label: labels) {
-            printWhitespaces(longest - label.length());
-            System.out.print(label);
+        for (int label: labels) {
+            String pl = this.trainData.labelDictionary.decode(label);
+            printWhitespaces(longest - pl.length());
+            System.out.print(pl);
             printDelimeter();
         }
         System.out.print("\n");
         printLine(longest, labels.size());
         for (int i = 0; i < labels.size(); i ++) {
-            String al = labels.get(i);
+            String al = this.trainData.labelDictionary.decode(labels.get(i));
             printDelimeter();
             printWhitespaces(longest - al.length());
             System.out.print(al);
             printDelimeter();
-            for (String label: labels) {
-                Integer count = this.confusionMatrix.get(new Pair<>(al, label));
-                String num = count == null ? "0" : String.valueOf(count);
+            for (int label: labels) {
+                String num = String.valueOf(this.confusionMatrix[labels.get(i)][label]);
                 printWhitespaces(longest - num.length());
                 System.out.print(num);
                 printDelimeter();
@@ -409,20 +451,6 @@ public class DecisionTree {
         }
     }
 
-    /**
-     * A utility to update confusion matrix.
-     * @param pair The <actual label, predict label> pair.
-     */
-    private void updateConfusionMatrix(Pair<String, String> pair) {
-        if (this.confusionMatrix.containsKey(pair)) {
-            int count = this.confusionMatrix.get(pair);
-            this.confusionMatrix.put(pair, ++ count);
-        } else {
-            this.confusionMatrix.put(pair, 1);
-        }
-    }
-
-
     /**
      * Funtion to start building the tree.
      */
@@ -431,12 +459,43 @@ public class DecisionTree {
 
         // The attributes index array. To indicate the remaining unsplit attributes.
         // Initially all attributes are remained.
-        for (int i = 0; i < this.trainData.entries.get(0).attributes.size(); i ++) {
+        for (int i = 0; i < this.trainData.numOfAttributes(); i ++) {
             attributes.add(i);
         }
 
-        this.start = new Node();
-        this.root = ID3(this.trainData, attributes);
+        // Continuous attributes are sorted once here for exact splitting, histogram splitting needs no order.
+        // A shared index of the whole data only needs the rows left out filtered.
+        SortedIndex index = this.sharedIndex != null
+                ? new SortedIndex(this.sharedIndex, this.weights, this.offHeap)
+                : new SortedIndex(this.trainData, this.chosenAttributes, !this.histogramSplit, this.weights, this.offHeap);
+        int n = index.size;
+
+        Histogram histogram = null;
+        if (this.histogramSplit) {
+            // Bins are formed over the tree's own bootstrap sample, rows left out don't shape them.
+            this.binning = new Binning(this.trainData, this.chosenAttributes, this.numOfBins, this.weights);
+            histogram = Histogram.build(index, 0, n, this.binning);
+        } else {
+            this.binning = null;
+        }
+
+        this.start = new Node(-1);
+        if (this.numOfThreads > 1) {
+            // Large subtrees are grown concurrently in a fork-join pool.
+            this.pool = new ForkJoinPool(this.numOfThreads);
+            try {
+                final Histogram rootHistogram = histogram;
+                this.root = this.pool.invoke(ForkJoinTask.adapt(
+                        () -> ID3(index, 0, n, attributes, rootHistogram, this.random)));
+            } finally {
+                this.pool.shutdown();
+                this.pool = null;
+            }
+        } else {
+            this.root = ID3(index, 0, n, attributes, histogram, this.random);
+        }
+
+        this.compiled = CompiledForest.compile(Collections.singletonList(this.root), this.trainData);
     }
 
     /**
@@ -444,22 +503,22 @@ public class DecisionTree {
      * @return The accuracy.
      */
     public double startTesting() {
-        this.confusionMatrix = new HashMap<>();
+        int numOfClasses = this.testData.labelDictionary.size();
+        this.confusionMatrix = new int[numOfClasses][numOfClasses];
         double correct = 0;
         double all = 0;
-        for (Entry e: this.testData.entries) {
-            String predictedLabel = getPrediction(e, this.root);
-            if (predictedLabel.equals(e.label)) {
+        for (int row = 0; row < this.testData.size; row ++) {
+            int label = this.testData.labels[row];
+            int predictedLabel = this.compiled.predict(0, this.testData, row);
+            if (predictedLabel == label) {
                 correct ++;
             } else {
-                System.out.print("Miss classifying [ ");
-                for (CellData d: e.attributes) {
-                    System.out.print(d.value + ", ");
-                }
-                System.out.print(e.label + "]\tas [" + predictedLabel + "]\n");
+                System.out.print("Miss classifying [ " + this.testData.toString(row, ", ") + "]\tas [" + this.testData.labelDictionary.decode(predictedLabel) + "]\n");
+            }
+            // Labels that training data doesn't have are stored as -1, they are misses out of the matrix.
+            if (label >= 0) {
+                this.confusionMatrix[label][predictedLabel] ++;
             }
-            Pair<String, String> pair = new Pair<>(e.label, predictedLabel);
-            updateConfusionMatrix(pair);
             all ++;
         }
         double accuracy = correct / all;
@@ -470,11 +529,12 @@ public class DecisionTree {
 
     /**
      * For random forest testing purpose.
-     * @param e Entry that random forest wants to get result on.
-     * @return The predicted label of the input entry.
+     * @param data The dataset that random forest wants to get result on, sharing the dictionaries of training data.
+     * @param row The row that random forest wants to get result on.
+     * @return The predicted label id of the input row.
      */
-    public String startTesting(Entry e) {
-        String predictedLabel = getPrediction(e, this.root);
+    public int startTesting(Dataset data, int row) {
+        int predictedLabel = this.compiled.predict(0, data, row);
         return predictedLabel;
     }
 }
@@ -0,0 +1,172 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is a dictionary for dictionary encoding of categorical values and labels.
+ * Each distinct string gets a dense integer id in order of first appearance.
+ * Ids are kept in an open addressing hash table that compares characters, so a value can be looked up in a
+ * line's char buffer without creating a String, only new values are turned into Strings.
+ */
+class Dictionary {
+    // The id in each slot of the hash table, -1 for empty slots. The length is a power of two.
+    private int[] table;
+
+    // The hash of each id's string, same as String.hashCode.
+    private int[] hashes;
+
+    // The string of each id.
+    private List<String> values;
+
+    Dictionary() {
+        this.table = new int[16];
+        Arrays.fill(this.table, -1);
+        this.hashes = new int[8];
+        this.values = new ArrayList<>();
+    }
+
+    /**
+     * Get the id of a string, a new id is assigned if the string is new.
+     * @param value The string.
+     * @return The id.
+     */
+    int encode(String value) {
+        char[] chars = value.toCharArray();
+        return encode(chars, 0, chars.length);
+    }
+
+    /**
+     * Get the id of a range of chars, a new id is assigned if the string is new.
+     * @param chars The chars.
+     * @param from The start of the string.
+     * @param to The end(exclusive) of the string.
+     * @return The id.
+     */
+    int encode(char[] chars, int from, int to) {
+        int hash = hash(chars, from, to);
+        int slot = find(chars, from, to, hash);
+        if (this.table[slot] >= 0) {
+            return this.table[slot];
+        }
+
+        int id = this.values.size();
+        this.values.add(new String(chars, from, to - from));
+        if (id == this.hashes.length) {
+            this.hashes = Arrays.copyOf(this.hashes, 2 * id);
+        }
+        this.hashes[id] = hash;
+        this.table[slot] = id;
+
+        // Keep the table at most half full.
+        if (2 * this.values.size() > this.table.length) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * Get the id of a string without assigning new ids.
+     * @param value The string.
+     * @return The id, -1 if the string is not in the dictionary.
+     */
+    int lookup(String value) {
+        char[] chars = value.toCharArray();
+        return lookup(chars, 0, chars.length);
+    }
+
+    /**
+     * Get the id of a range of chars without assigning new ids.
+     * @param chars The chars.
+     * @param from The start of the string.
+     * @param to The end(exclusive) of the string.
+     * @return The id, -1 if the string is not in the dictionary.
+     */
+    int lookup(char[] chars, int from, int to) {
+        return this.table[find(chars, from, to, hash(chars, from, to))];
+    }
+
+    /**
+     * A utility to find the slot of a string, either its id's slot or the empty slot it would take.
+     * @param chars The chars.
+     * @param from The start of the string.
+     * @param to The end(exclusive) of the string.
+     * @param hash The hash of the string.
+     * @return The slot.
+     */
+    private int find(char[] chars, int from, int to, int hash) {
+        int mask = this.table.length - 1;
+        int slot = spread(hash) & mask;
+        while (true) {
+            int id = this.table[slot];
+            if (id < 0 || (this.hashes[id] == hash && matches(this.values.get(id), chars, from, to))) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+    }
+
+    /**
+     * Double the hash table, every id is put into its slot again.
+     */
+    private void rehash() {
+        this.table = new int[2 * this.table.length];
+        Arrays.fill(this.table, -1);
+        int mask = this.table.length - 1;
+        for (int id = 0; id < this.values.size(); id ++) {
+            int slot = spread(this.hashes[id]) & mask;
+            while (this.table[slot] >= 0) {
+                slot = (slot + 1) & mask;
+            }
+            this.table[slot] = id;
+        }
+    }
+
+    /**
+     * A utility to hash a range of chars, same as String.hashCode.
+     */
+    private static int hash(char[] chars, int from, int to) {
+        int hash = 0;
+        for (int i = from; i < to; i ++) {
+            hash = 31 * hash + chars[i];
+        }
+        return hash;
+    }
+
+    /**
+     * A utility to mix the high bits of a hash into the low bits that pick the slot.
+     */
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * A utility to compare a string with a range of chars.
+     */
+    private static boolean matches(String value, char[] chars, int from, int to) {
+        if (value.length() != to - from) {
+            return false;
+        }
+        for (int i = from; i < to; i ++) {
+            if (value.charAt(i - from) != chars[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Get the string of an id.
+     * @param id The id.
+     * @return The string.
+     */
+    String decode(int id) {
+        return this.values.get(id);
+    }
+
+    /**
+     * @return The number of distinct strings.
+     */
+    int size() {
+        return this.values.size();
+    }
+}
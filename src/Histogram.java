@@ -0,0 +1,87 @@
+/**
+ * This class is the per node class count histogram of continuous attributes for histogram splitting.
+ * For each binned attribute, it counts every label in every bin, so the best boundary can be found by
+ * sweeping the bins instead of the examples.
+ */
+class Histogram {
+    // Class counts for each attribute, counts[attrIdx][bin * numOfClasses + classIdx]. NULL if not binned.
+    // The last bin counts missing values.
+    int[][] counts;
+
+    // The number of labels in the tree.
+    int numOfClasses;
+
+    /**
+     * Constructor for an empty histogram with the same shape as the binning.
+     * @param binning The tree's binning.
+     * @param numOfClasses The number of labels in the tree.
+     */
+    private Histogram(Binning binning, int numOfClasses) {
+        this.numOfClasses = numOfClasses;
+        this.counts = new int[binning.cuts.length][];
+        for (int attrIdx = 0; attrIdx < binning.cuts.length; attrIdx ++) {
+            if (binning.cuts[attrIdx] != null) {
+                this.counts[attrIdx] = new int[(binning.numOfBins(attrIdx) + 1) * this.numOfClasses];
+            }
+        }
+    }
+
+    /**
+     * Copy constructor.
+     * @param histogram The histogram to copy.
+     */
+    private Histogram(Histogram histogram) {
+        this.numOfClasses = histogram.numOfClasses;
+        this.counts = new int[histogram.counts.length][];
+        for (int attrIdx = 0; attrIdx < histogram.counts.length; attrIdx ++) {
+            if (histogram.counts[attrIdx] != null) {
+                this.counts[attrIdx] = histogram.counts[attrIdx].clone();
+            }
+        }
+    }
+
+    /**
+     * Build the histogram by counting the examples once, each example counts its weight.
+     * @param index The tree's presorted index.
+     * @param from The start of the node's range in the index.
+     * @param to The end(exclusive) of the node's range in the index.
+     * @param binning The tree's binning.
+     * @return The histogram of the examples.
+     */
+    static Histogram build(SortedIndex index, int from, int to, Binning binning) {
+        Dataset data = index.data;
+        Histogram histogram = new Histogram(binning, data.labelDictionary.size());
+        for (int attrIdx = 0; attrIdx < histogram.counts.length; attrIdx ++) {
+            if (histogram.counts[attrIdx] == null) {
+                continue;
+            }
+            int[] counts = histogram.counts[attrIdx];
+            double[] values = data.continuous[attrIdx];
+            for (int i = from; i < to; i ++) {
+                int row = index.rows.get(i);
+                counts[binning.bin(attrIdx, values[row]) * histogram.numOfClasses + data.labels[row]] += index.weights[row];
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * Derive a sibling's histogram by subtracting a child's histogram from its parent's(this) histogram.
+     * @param child The histogram of one child.
+     * @return The histogram of the other child.
+     */
+    Histogram subtract(Histogram child) {
+        Histogram sibling = new Histogram(this);
+        for (int attrIdx = 0; attrIdx < this.counts.length; attrIdx ++) {
+            if (this.counts[attrIdx] == null) {
+                continue;
+            }
+            int[] siblingCounts = sibling.counts[attrIdx];
+            int[] childCounts = child.counts[attrIdx];
+            for (int i = 0; i < siblingCounts.length; i ++) {
+                siblingCounts[i] -= childCounts[i];
+            }
+        }
+        return sibling;
+    }
+}
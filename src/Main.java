@@ -20,5 +20,15 @@ public class Main {
 
         rfMapReduce.accuracyCalculation(args[1] + "/part-r-00000");
 
+        // Optionally score the test data again with the persisted forest, in a separate job.
+        if (args.length > 4) {
+            RFScoring rfScoring = new RFScoring(";");
+
+            rfScoring.ScoringDriver(new String[]{args[2], args[4], args[1] + "/" + RFMapReduce.FOREST_FILE});
+
+            // One output file per mapper, all of them are read.
+            rfMapReduce.accuracyCalculation(args[4]);
+        }
+
     }
 }
@@ -2,7 +2,9 @@
  * Created by d_d on 3/1/17.
  */
 
+import java.nio.IntBuffer;
 import java.util.*;
+import java.util.concurrent.ForkJoinTask;
 
 /**
  * This class is for Node of decision tree.
@@ -26,20 +28,29 @@ class Node {
     double entropy;
 
     // Using the splitting boundary form a labelsCount.
-    // It's a hash map, the key is label, the value is the number of it.
-    Map<String, Integer> labelsCount;
+    // It's a dense count array, the index is label id, the value is the number of it.
+    int[] labelsCount;
 
-    // Leaf node's label, which is used to produce prediction. NULL if non-leaf nodes.
-    String label;
+    // The weighted number of examples, the sum of their weights in the tree's bootstrap sample.
+    int numOfExamples;
+
+    // Leaf node's label id, which is used to produce prediction. -1 if non-leaf nodes.
+    int label;
 
     // To tag if current node needs more splitting.
     boolean isConsistent;
 
-    // The best attribute that needs to be split.
+    // The best attribute that needs to be split. -1 if no boundary is found.
     int bestAttribute;
 
-    // The decision boundary for the best attribute. Also using this to binarize the data.
-    CellData decision;
+    // The decision boundary for the best continuous attribute. Also using this to binarize the data.
+    double threshold;
+
+    // The default direction of the best continuous attribute, true if examples missing it go to the left child.
+    boolean missingLeft;
+
+    // The decision category id for the best categorical attribute. Also using this to binarize the data.
+    int category;
 
     // Left child.
     Node left;
@@ -47,6 +58,13 @@ class Node {
     // Right child.
     Node right;
 
+    // The tree's bins for histogram splitting. NULL if exact splitting is used.
+    Binning binning;
+
+    // Class count histogram of current examples for histogram splitting. Kept until children's histograms
+    // are derived from it.
+    Histogram histogram;
+
     /**
      * Utility of LOG function, support any base.
      * @param x Log parameter.
@@ -57,39 +75,26 @@ class Node {
         return (Math.log(x) / Math.log(base));
     }
 
-    /**
-     * A utility that facilitates the counting process in a hash map for certain key.
-     * Same as in python Collections.Counter().
-     * @param hashMap The hash map that needs to be updated.
-     * @param key The key that needs to be updated.
-     * @return The updated hash map.
-     */
-    private Map<String, Integer> Counter(Map<String, Integer> hashMap, String key) {
-        Map<String, Integer> temp = new HashMap<>(hashMap);
-        if (temp.containsKey(key)) {
-            int count = temp.get(key);
-            temp.put(key, ++ count);
-        } else {
-            temp.put(key, 1);
-        }
-        return temp;
-    }
-
     /**
      * For current examples, generate the label count, for later calculating entropy and consistency check.
-     * @param examples The examples that current node received.
+     * @param index The tree's presorted index.
+     * @param from The start of current node's range in the index.
+     * @param to The end(exclusive) of current node's range in the index.
      */
-    private void processLabels(Entries examples) {
-        List<String> labels = new ArrayList<>();
-        this.labelsCount = new HashMap<>();
-        for (Entry e: examples.entries) {
-            this.labelsCount = Counter(this.labelsCount, e.label);
-            labels.add(e.label);
+    private void processLabels(SortedIndex index, int from, int to) {
+        int[] labels = index.data.labels;
+        int[] weights = index.weights;
+        this.labelsCount = new int[index.data.labelDictionary.size()];
+        this.numOfExamples = 0;
+        for (int i = from; i < to; i ++) {
+            int row = index.rows.get(i);
+            this.labelsCount[labels[row]] += weights[row];
+            this.numOfExamples += weights[row];
         }
-        if (this.labelsCount.size() == 1) {
+        if (this.labelsCount[labels[index.rows.get(from)]] == this.numOfExamples) {
 
             // If only one label exists in current example then set the prediction label to it.
-            this.label = labels.get(0);
+            this.label = labels[index.rows.get(from)];
 
             // No need to split more, current node is consistent with examples.
             this.isConsistent = true;
@@ -101,181 +106,378 @@ class Node {
     }
 
     /**
-     * Calculate entropy for a labelsCount.
+     * Take a majority vote among current examples' labels.
+     * @return The id of the most common label, the smallest id wins a tie.
+     */
+    int majorityLabel() {
+        int majority = 0;
+        for (int i = 1; i < this.labelsCount.length; i ++) {
+            if (this.labelsCount[i] > this.labelsCount[majority]) {
+                majority = i;
+            }
+        }
+        return majority;
+    }
+
+    /**
+     * Calculate entropy for a dense label count array.
      * @param n The total number of labels.
-     * @param labelsCount The hash map of labels, the key is label, the value is the number of it.
+     * @param labelsCount The count of each label, indexed by label id. Zero counts are skipped.
      * @return The labelsCount's entropy.
      */
-    private double calculateEntropy(Integer n, Map<String, Integer> labelsCount) {
+    private double calculateEntropy(int n, int[] labelsCount) {
         double entropy = 0;
-        Iterator it = labelsCount.entrySet().iterator();
-        while (it.hasNext()) {
-            Map.Entry pair = (Map.Entry)it.next();
-            Double count = ((Integer) pair.getValue()) * 1.0; // * 1.0 is to convert it to double type.
-            double p = count / n;
+        for (int count: labelsCount) {
+            if (count == 0) {
+                continue;
+            }
+            double p = (count * 1.0) / n;
             entropy -= (p * log(p, 2));
         }
         return entropy;
     }
 
+    /**
+     * Calculate the weighted entropy of the children formed by a boundary.
+     * @param n The total number of examples.
+     * @param posNum The number of examples going left.
+     * @param pos The count of each label going left.
+     * @param neg The count of each label going right.
+     * @return The weighted entropy.
+     */
+    private double splitEntropy(int n, int posNum, int[] pos, int[] neg) {
+        double posFraction = (posNum * 1.0) / n;
+        double posEntropy = posFraction * calculateEntropy(posNum, pos);
+        double negEntropy = (1 - posFraction) * calculateEntropy(n - posNum, neg);
+        return posEntropy + negEntropy;
+    }
+
+    /**
+     * Try a boundary of a continuous attribute, updating the attribute's best boundary. Examples missing the
+     * attribute are tried on both sides, the side with the lower entropy becomes the default direction.
+     * @param best The best boundary of the attribute, updated in place.
+     * @param threshold The boundary.
+     * @param posNum The number of examples not missing the attribute and not greater than the boundary.
+     * @param pos The count of each label of them.
+     * @param neg The count of each label of examples not missing the attribute and greater than the boundary.
+     * @param missNum The number of examples missing the attribute.
+     * @param miss The count of each label of them.
+     * @param scratch Scratch counts, one per label.
+     */
+    private void tryBoundary(Split best, double threshold, int posNum, int[] pos, int[] neg, int missNum, int[] miss, int[] scratch) {
+        int n = this.numOfExamples;
+
+        // Missing examples go right. Boundaries that leave one side empty are skipped.
+        if (posNum > 0 && posNum < n) {
+            int[] right = neg;
+            if (missNum > 0) {
+                for (int c = 0; c < neg.length; c ++) {
+                    scratch[c] = neg[c] + miss[c];
+                }
+                right = scratch;
+            }
+            double entropy = splitEntropy(n, posNum, pos, right);
+            if (entropy < best.entropy) {
+                best.entropy = entropy;
+                best.threshold = threshold;
+                best.missingLeft = false;
+            }
+        }
+
+        // Missing examples go left.
+        if (missNum > 0 && posNum + missNum < n) {
+            for (int c = 0; c < pos.length; c ++) {
+                scratch[c] = pos[c] + miss[c];
+            }
+            double entropy = splitEntropy(n, posNum + missNum, scratch, neg);
+            if (entropy < best.entropy) {
+                best.entropy = entropy;
+                best.threshold = threshold;
+                best.missingLeft = true;
+            }
+        }
+    }
+
     /**
      * The main function to find the next best splitting attribute.
      * I put it into Node because every node would receive a set of examples when it's created and wouldn't be
      * changed later.
-     * @param examples The examples that current node received after its parent's splitting.
+     * @param index The tree's presorted index.
+     * @param from The start of current node's range in the index.
+     * @param to The end(exclusive) of current node's range in the index.
      * @param attributes The remaining attributes that haven't been spitted before.
+     * @param random The tree's random generator for attributes subspace selection.
+     * @param parallel Indicate if attributes are evaluated concurrently, in the current fork-join pool.
      */
-    private void findBestSplitAttr(Entries examples, ArrayList<Integer> attributes) {
-
+    private void findBestSplitAttr(SortedIndex index, int from, int to, ArrayList<Integer> attributes, Random random, boolean parallel) {
         // For later random forest attribute subspace selection.
         ArrayList<Integer> selectedAttributes = new ArrayList<>();
 
-        // Random attributes subspace selection.
+        // Random attributes subspace selection, only among chosen attributes.
         if (this.inRandomForest) {
-            if (attributes.size() > this.attrSubspaceNum) {
-
-                ArrayList<Integer> attrIndexes = new ArrayList<>();
+            ArrayList<Integer> candidates = new ArrayList<>();
+            for (Integer attrIdx: attributes) {
+                if (this.chosenAttributes.get(attrIdx)) {
+                    candidates.add(attrIdx);
+                }
+            }
 
+            if (candidates.size() > this.attrSubspaceNum) {
+                // Partial Fisher-Yates shuffle, the first attrSubspaceNum candidates are selected.
                 for (int i = 0; i < this.attrSubspaceNum; i ++) {
-                    Integer index = (int) (Math.random() * (attributes.size()));
-
-                    while (attrIndexes.contains(index) || !chosenAttributes.get(attributes.get(index))) {
-                        index = (int) (Math.random() * (attributes.size()));
-                    }
-
-                    attrIndexes.add(index);
-
-                    selectedAttributes.add(attributes.get(index));
+                    Collections.swap(candidates, i, i + random.nextInt(candidates.size() - i));
+                    selectedAttributes.add(candidates.get(i));
                 }
             } else { // If the attributes left are less than specified attributes subspace number, than no selection is needed further.
-                selectedAttributes.addAll(attributes);
+                selectedAttributes.addAll(candidates);
             }
         } else {
             selectedAttributes.addAll(attributes);
         }
 
-        // minEntropy over all attributes and all candidate boundaries.
+        // Evaluate every selected attribute independently, each reads only its own sorted order or histogram.
+        ArrayList<Integer> candidates = new ArrayList<>();
+        for (Integer attrIdx: selectedAttributes) {
+            if (this.chosenAttributes.get(attrIdx)) {
+                candidates.add(attrIdx);
+            }
+        }
+        List<Split> splits = new ArrayList<>();
+        if (parallel && candidates.size() > 1) {
+            List<ForkJoinTask<Split>> tasks = new ArrayList<>();
+            for (final Integer attrIdx: candidates) {
+                tasks.add(ForkJoinTask.adapt(() -> evaluate(index, from, to, attrIdx)));
+            }
+            ForkJoinTask.invokeAll(tasks);
+            for (ForkJoinTask<Split> task: tasks) {
+                splits.add(task.join());
+            }
+        } else {
+            for (Integer attrIdx: candidates) {
+                splits.add(evaluate(index, from, to, attrIdx));
+            }
+        }
+
+        // minEntropy over all attributes and all candidate boundaries. The reduction follows the order of the
+        // selected attributes, so an earlier attribute wins a tie no matter how they were evaluated.
         double minEntropy = Double.MAX_VALUE;
 
-        // Traverse all remaining attributes.
-        for (Integer attrIdx: selectedAttributes) {
-            if (!this.chosenAttributes.get(attrIdx)) {
-                continue;
+        // No boundary is found yet.
+        this.bestAttribute = -1;
+
+        for (Split split: splits) {
+            if (split != null && split.entropy < minEntropy) {
+                minEntropy = split.entropy;
+                this.bestAttribute = split.attribute;
+                this.threshold = split.threshold;
+                this.missingLeft = split.missingLeft;
+                this.category = split.category;
+            }
+        }
+    }
+
+    /**
+     * Find the best boundary of one attribute.
+     * @param index The tree's presorted index.
+     * @param from The start of current node's range in the index.
+     * @param to The end(exclusive) of current node's range in the index.
+     * @param attrIdx The attribute.
+     * @return The best boundary of the attribute, NULL if no boundary separates the examples.
+     */
+    private Split evaluate(SortedIndex index, int from, int to, int attrIdx) {
+        // The weighted number of examples that current node received after its parent's splitting.
+        int n = this.numOfExamples;
+
+        // Labels are counted in int arrays indexed by label id, each example counts its weight.
+        Dataset data = index.data;
+        int[] weights = index.weights;
+        int numOfClasses = data.labelDictionary.size();
+
+        // The best boundary of this attribute, updated in place.
+        Split best = new Split(attrIdx, Double.MAX_VALUE);
+
+        if (!this.typeSpecification.get(attrIdx) && this.histogram != null) {     // Continuous, histogram
+            int[] counts = this.histogram.counts[attrIdx];
+            double[] cuts = this.binning.cuts[attrIdx];
+            int numOfBins = cuts.length + 1;
+
+            // Examples missing the attribute are counted in the bin after all others.
+            int[] pos = new int[numOfClasses];
+            int[] neg = new int[numOfClasses];
+            int[] miss = new int[numOfClasses];
+            int[] scratch = new int[numOfClasses];
+            int missNum = 0;
+            for (int i = 0; i < numOfBins * numOfClasses; i ++) {
+                neg[i % numOfClasses] += counts[i];
+            }
+            for (int c = 0; c < numOfClasses; c ++) {
+                miss[c] = counts[numOfBins * numOfClasses + c];
+                missNum += miss[c];
             }
 
-            if (!this.typeSpecification.get(attrIdx)) {     // Continuous
-                // Sort examples according to current attributes.
-                Collections.sort(examples.entries, new Comparator<Entry>() {
-                    @Override
-                    public int compare(Entry o1, Entry o2) {
-                        return new CellData().compare(o1.attributes.get(attrIdx),
-                                o2.attributes.get(attrIdx));
-                    }
-                });
-
-                // Trying all candidate boundaries.
-                for (int i = 1; i < examples.entries.size(); i++) {
-
-                    // Discretise examples into binary.
-                    Map<String, Integer> pos = new HashMap<>();
-                    Map<String, Integer> neg = new HashMap<>();
-
-                    for (int j = 0; j < examples.entries.size(); j++) {
-                        String newLabel = examples.entries.get(j).label;
-                        if (j < i) {
-                            pos = Counter(pos, newLabel);
-                        } else {
-                            neg = Counter(neg, newLabel);
-                        }
-                    }
-
-                    // Calculate pos and neg entropy.
-                    double posFraction = (i * 1.0) / examples.entries.size();
-                    double posEntropy = posFraction * calculateEntropy(i, pos);
-                    double negEntropy = (1 - posFraction) * calculateEntropy(examples.entries.size() - i, neg);
-
-                    // Updating the minEntropy.
-                    if ((posEntropy + negEntropy) < minEntropy) {
-                        minEntropy = posEntropy + negEntropy;
-                        this.decision = new CellData(new CellData().getMean(examples.entries.get(i - 1).attributes.get(attrIdx), examples.entries.get(i).attributes.get(attrIdx)));
-                        this.bestAttribute = attrIdx;
-                    }
+            // Trying the upper boundary of every bin except the last one, cost is independent of examples.
+            // If examples are missing the attribute, the last bin's upper boundary separates them from the others.
+            int posNum = 0;
+            int numOfBoundaries = missNum > 0 ? numOfBins : cuts.length;
+            for (int b = 0; b < numOfBoundaries; b ++) {
+                for (int c = 0; c < numOfClasses; c ++) {
+                    pos[c] += counts[b * numOfClasses + c];
+                    neg[c] -= counts[b * numOfClasses + c];
+                    posNum += counts[b * numOfClasses + c];
                 }
-            } else {        // Categorical
-                Set<String> categories = new HashSet<>();
+                tryBoundary(best, b < cuts.length ? cuts[b] : Double.POSITIVE_INFINITY, posNum, pos, neg, missNum, miss, scratch);
+            }
+        } else if (!this.typeSpecification.get(attrIdx)) {     // Continuous, exact
+            // Examples of current node sorted by current attribute, inherited from the parent. Examples missing
+            // the attribute are sorted last, [end, to).
+            IntBuffer sorted = index.sorted[attrIdx];
+            double[] values = data.continuous[attrIdx];
+            int end = to;
+            while (end > from && Double.isNaN(values[sorted.get(end - 1)])) {
+                end --;
+            }
 
-                // Get all categories.
-                for (int i = 0; i < examples.entries.size(); i ++) {
-                    String data = (String) examples.entries.get(i).attributes.get(attrIdx).value;
-                    categories.add(data);
+            // Single sweep over the sorted examples: every example starts on the neg side and is moved to
+            // the pos side one by one, so each candidate boundary only costs one count update.
+            int[] pos = new int[numOfClasses];
+            int[] neg = new int[numOfClasses];
+            int[] miss = new int[numOfClasses];
+            int[] scratch = new int[numOfClasses];
+            int missNum = 0;
+            for (int i = from; i < end; i ++) {
+                int row = sorted.get(i);
+                neg[data.labels[row]] += weights[row];
+            }
+            for (int i = end; i < to; i ++) {
+                int row = sorted.get(i);
+                miss[data.labels[row]] += weights[row];
+                missNum += weights[row];
+            }
+
+            // Trying all candidate boundaries.
+            int posNum = 0;
+            for (int i = from + 1; i < end; i++) {
+                int previous = sorted.get(i - 1);
+                int current = sorted.get(i);
+
+                // Discretise examples into binary.
+                pos[data.labels[previous]] += weights[previous];
+                neg[data.labels[previous]] -= weights[previous];
+                posNum += weights[previous];
+
+                // A boundary between two equal values can't separate them.
+                if (values[previous] == values[current]) {
+                    continue;
+                }
+
+                tryBoundary(best, (values[previous] + values[current]) / 2.0, posNum, pos, neg, missNum, miss, scratch);
+            }
+
+            // The boundary separating the examples missing the attribute from the others.
+            if (missNum > 0 && end > from) {
+                int last = sorted.get(end - 1);
+                pos[data.labels[last]] += weights[last];
+                neg[data.labels[last]] -= weights[last];
+                posNum += weights[last];
+                tryBoundary(best, Double.POSITIVE_INFINITY, posNum, pos, neg, missNum, miss, scratch);
+            }
+        } else {        // Categorical
+            int[] categories = data.categorical[attrIdx];
+            int numOfCategories = data.categoryDictionaries[attrIdx].size();
+
+            // Count labels of every category in one pass, counts[category * numOfClasses + label].
+            int[] counts = new int[numOfCategories * numOfClasses];
+            int[] categoryNum = new int[numOfCategories];
+            int[] all = new int[numOfClasses];
+            for (int i = from; i < to; i ++) {
+                int row = index.rows.get(i);
+                counts[categories[row] * numOfClasses + data.labels[row]] += weights[row];
+                categoryNum[categories[row]] += weights[row];
+                all[data.labels[row]] += weights[row];
+            }
+
+            // Find the best category to split.
+            int[] pos = new int[numOfClasses];
+            int[] neg = new int[numOfClasses];
+            for (int category = 0; category < numOfCategories; category ++) {
+                int posNum = categoryNum[category];
+                if (posNum == 0) {
+                    continue;
                 }
 
-                // Find the best category to split.
-                for (String category: categories) {
-
-                    Map<String, Integer> pos = new HashMap<>();
-                    Map<String, Integer> neg = new HashMap<>();
-
-                    for (int i = 0; i < examples.entries.size(); i ++) {
-                        String newLabel = examples.entries.get(i).label;
-                        String data = (String) examples.entries.get(i).attributes.get(attrIdx).value;
-                        if (category.equals(data)) {
-                            pos = Counter(pos, newLabel);
-                        } else {
-                            neg = Counter(pos, newLabel);
-                        }
-                    }
-
-                    // Calculate pos and neg entropy.
-                    double posFraction = (pos.size() * 1.0) / examples.entries.size();
-                    double posEntropy = posFraction * calculateEntropy(pos.size(), pos);
-                    double negEntropy = (1 - posFraction) * calculateEntropy(neg.size(), neg);
-
-                    // Updating the minEntropy.
-                    if ((posEntropy + negEntropy) < minEntropy) {
-                        minEntropy = posEntropy + negEntropy;
-                        this.decision = new CellData(category);
-                        this.bestAttribute = attrIdx;
-                    }
+                for (int c = 0; c < numOfClasses; c ++) {
+                    pos[c] = counts[category * numOfClasses + c];
+                    neg[c] = all[c] - pos[c];
+                }
+
+                // Updating the best boundary.
+                double entropy = splitEntropy(n, posNum, pos, neg);
+                if (entropy < best.entropy) {
+                    best.entropy = entropy;
+                    best.category = category;
                 }
             }
         }
+        return best.entropy < Double.MAX_VALUE ? best : null;
+    }
+
+    /**
+     * Check which child a row goes to according to the decision of the best splitting attribute.
+     * @param data The dataset of the row.
+     * @param row The row.
+     * @return True if the row goes to the left child.
+     */
+    boolean goesLeft(Dataset data, int row) {
+        if (this.typeSpecification.get(this.bestAttribute)) {
+            return data.categorical[this.bestAttribute][row] == this.category;
+        } else {
+            double value = data.continuous[this.bestAttribute][row];
+            return value <= this.threshold || (this.missingLeft && Double.isNaN(value));
+        }
     }
 
     /**
      * Constructor for Node when it needs to receive examples and remaining attributes.
-     * @param examples The remaining examples after its parent's splitting.
+     * @param index The tree's presorted index.
+     * @param from The start of the remaining examples' range in the index after its parent's splitting.
+     * @param to The end(exclusive) of the remaining examples' range in the index after its parent's splitting.
      * @param attributes The remaining attributes after its parent's splitting.
+     * @param binning The tree's bins for histogram splitting, NULL if exact splitting is used.
+     * @param histogram The histogram of the examples, NULL if exact splitting is used.
+     * @param random The tree's random generator for attributes subspace selection.
+     * @param parallel Indicate if attributes are evaluated concurrently, in the current fork-join pool.
      */
-    Node(Entries examples, ArrayList<Integer> attributes, ArrayList<Boolean> typeSpecification, ArrayList<Boolean> choosenAttributes, boolean inRandomForest, int attrSubspaceNum) {
+    Node(SortedIndex index, int from, int to, ArrayList<Integer> attributes, ArrayList<Boolean> typeSpecification, ArrayList<Boolean> choosenAttributes, boolean inRandomForest, int attrSubspaceNum, Binning binning, Histogram histogram, Random random, boolean parallel) {
         this.left = null;
         this.right = null;
-        this.label = null;
+        this.label = -1;
         this.typeSpecification = typeSpecification;
         this.chosenAttributes = choosenAttributes;
         this.inRandomForest = inRandomForest;
         this.attrSubspaceNum = attrSubspaceNum;
+        this.binning = binning;
+        this.histogram = histogram;
 
-        processLabels(examples);
+        processLabels(index, from, to);
 
-        this.entropy = calculateEntropy(examples.entries.size(), this.labelsCount);
+        this.entropy = calculateEntropy(this.numOfExamples, this.labelsCount);
 
-        findBestSplitAttr(examples, attributes);
+        findBestSplitAttr(index, from, to, attributes, random, parallel);
     }
 
     /**
      * Constructor of Node when there's no examples left.
+     * @param label The label id to predict, usually its parent's majority label. -1 if it's not for prediction.
      */
-    Node() {
+    Node(int label) {
         this.left = null;
         this.right = null;
-        this.label = null;
         this.typeSpecification = new ArrayList<>();
         this.chosenAttributes = new ArrayList<>();
         this.entropy = 0;
-        this.labelsCount = new HashMap<>();
+        this.labelsCount = new int[0];
         this.isConsistent = true;
-        this.bestAttribute = 0;
-        this.label = "";
+        this.bestAttribute = -1;
+        this.label = label;
     }
 }
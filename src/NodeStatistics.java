@@ -0,0 +1,81 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class accumulates the split sufficient statistics of one frontier node in a RFLevelWise mapper: the
+ * weighted count of every label in every bucket of every attribute. Buckets are bins of continuous attributes
+ * and categories of categorical ones.
+ */
+class NodeStatistics {
+    // Weighted counts of each attribute, counts[attrIdx][bucket][label]. NULL for ignored attributes.
+    long[][][] counts;
+
+    /**
+     * Constructor for empty statistics.
+     * @param chosenAttributes A boolean array indicates the attributes to count, e.g. a node's candidates.
+     */
+    NodeStatistics(List<Boolean> chosenAttributes) {
+        this.counts = new long[chosenAttributes.size()][][];
+        for (int attrIdx = 0; attrIdx < chosenAttributes.size(); attrIdx ++) {
+            if (chosenAttributes.get(attrIdx)) {
+                this.counts[attrIdx] = new long[0][];
+            }
+        }
+    }
+
+    /**
+     * Count a row.
+     * @param data The dataset of the row.
+     * @param row The row.
+     * @param weight The row's weight in the tree's bootstrap sample.
+     * @param binning The bins of continuous attributes.
+     */
+    void add(Dataset data, int row, int weight, Binning binning) {
+        int label = data.labels[row];
+        for (int attrIdx = 0; attrIdx < this.counts.length; attrIdx ++) {
+            if (this.counts[attrIdx] == null) {
+                continue;
+            }
+            int bucket = data.typeSpecification.get(attrIdx)
+                    ? data.categorical[attrIdx][row]
+                    : binning.bin(attrIdx, data.continuous[attrIdx][row]);
+
+            // Buckets and labels are dictionary ids that may grow while rows are read.
+            long[][] attrCounts = this.counts[attrIdx];
+            if (bucket >= attrCounts.length) {
+                attrCounts = Arrays.copyOf(attrCounts, Math.max(bucket + 1, attrCounts.length * 2));
+                this.counts[attrIdx] = attrCounts;
+            }
+            if (attrCounts[bucket] == null) {
+                attrCounts[bucket] = new long[data.labelDictionary.size()];
+            } else if (label >= attrCounts[bucket].length) {
+                attrCounts[bucket] = Arrays.copyOf(attrCounts[bucket], data.labelDictionary.size());
+            }
+            attrCounts[bucket][label] += weight;
+        }
+    }
+
+    /**
+     * Write the statistics of one attribute with readable buckets and labels.
+     * @param attrIdx The attribute index.
+     * @param data The dataset whose dictionaries were used to count.
+     * @param out The statistics to fill, cleared first.
+     */
+    void write(int attrIdx, Dataset data, StatisticsWritable out) {
+        out.clear();
+        long[][] attrCounts = this.counts[attrIdx];
+        for (int bucket = 0; bucket < attrCounts.length; bucket ++) {
+            if (attrCounts[bucket] == null) {
+                continue;
+            }
+            String bucketName = data.typeSpecification.get(attrIdx)
+                    ? data.categoryDictionaries[attrIdx].decode(bucket)
+                    : Integer.toString(bucket);
+            for (int label = 0; label < attrCounts[bucket].length; label ++) {
+                if (attrCounts[bucket][label] > 0) {
+                    out.add(bucketName, data.labelDictionary.decode(label), attrCounts[bucket][label]);
+                }
+            }
+        }
+    }
+}
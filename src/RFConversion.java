@@ -0,0 +1,161 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * This class is the MapReduce job converting CSV data into binary columnar dataset files, once, so training and
+ * scoring jobs over the same data don't parse text again.
+ *
+ * This structure is as follows:
+ * ===============================================================================================================
+ * | 1. The CSV data is the job input, it's split by the framework like any text input.
+ * | 2. Each mapper parses the rows of its split into a columnar dataset, with its own dictionaries.
+ * | 3. In cleanup(), each mapper writes its dataset as one dataset file in the output folder, it's a map only job.
+ * ===============================================================================================================
+ * The output folder is used as the input folder of RFMapReduce or the data to score of RFScoring, their mappers
+ * load every dataset file and translate the dictionary ids of each file.
+ */
+public class RFConversion {
+
+    // Configuration.
+    public Configuration conf;
+
+    //MapReduce Job.
+    public Job job;
+
+    // Attributes' type(categorical/continuous) specification.
+    private String typeSpecification;
+
+    // Data CSV file delimiter.
+    private String delimiter;
+
+    /**
+     * Mapper class for conversion.
+     * Each RFConversionMapper Instance converts one split of the data into one dataset file.
+     */
+    public static class RFConversionMapper extends Mapper<LongWritable, Text, NullWritable, NullWritable> {
+        // Data CSV file delimiter.
+        String delimiter;
+
+        // The rows of the split.
+        Dataset data;
+
+        // Tokenizer of data lines, reused for every line.
+        CsvTokenizer tokens;
+
+        /**
+         * Overridden setup method to create the dataset.
+         * @param context The job context.
+         */
+        @Override
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            delimiter = conf.get("delimiter");
+            tokens = new CsvTokenizer(delimiter);
+
+            // Build type specification from configuration 0/1 sequence.
+            ArrayList<Boolean> typeSpec = new ArrayList<>();
+            String tempTypeSpec = conf.get("typeSpecification");
+            for (int i = 0; i < tempTypeSpec.length(); i ++) {
+                typeSpec.add(tempTypeSpec.charAt(i) == '1');
+            }
+            data = new Dataset(typeSpec);
+        }
+
+        /**
+         * Parse one row.
+         * @param key   The offset of the row, no actual use.
+         * @param value The row.
+         * @param context   The job context.
+         */
+        @Override
+        public void map(LongWritable key, Text value, Context context) {
+            // Rows without one value per attribute plus the label are skipped.
+            tokens.tokenize(value);
+            data.add(tokens);
+        }
+
+        /**
+         * Write the dataset file of the split.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            Path datasetPath = new Path(FileOutputFormat.getWorkOutputPath(context),
+                    FileOutputFormat.getUniqueFile(context, "part", DatasetFile.SUFFIX));
+            try (FSDataOutputStream out = datasetPath.getFileSystem(context.getConfiguration()).create(datasetPath, false)) {
+                DatasetFile.write(data, out);
+            }
+        }
+    }
+
+    /**
+     * The driver method used to start the conversion job.
+     * @param args  [input CSV data folder] [output folder].
+     * @return Indicate if the job is completely successfully.
+     * @throws Exception In case of Exception.
+     */
+    public int ConversionDriver(String[] args) throws Exception {
+        this.conf = new Configuration();
+
+        // Configuration are used to pass in parameters for Mapper.
+        this.conf.set("delimiter", delimiter);
+        this.conf.set("typeSpecification", typeSpecification);
+
+        this.job = Job.getInstance(conf, "RandomForestConversion");
+        this.job.setJarByClass(RFConversion.class);
+        this.job.setMapperClass(RFConversionMapper.class);
+
+        // Map only, dataset files are written by mappers.
+        this.job.setNumReduceTasks(0);
+
+        // CSV data.
+        FileInputFormat.addInputPath(this.job, new Path(args[0]));
+        this.job.setInputFormatClass(TextInputFormat.class);
+
+        // Output path, only the dataset files are created in it.
+        FileOutputFormat.setOutputPath(this.job, new Path(args[1]));
+        LazyOutputFormat.setOutputFormatClass(this.job, TextOutputFormat.class);
+
+        this.job.setOutputKeyClass(NullWritable.class);
+        this.job.setOutputValueClass(NullWritable.class);
+
+        int returnValue = this.job.waitForCompletion(true) ? 0 : 1;
+
+        if (this.job.isSuccessful()) {
+            System.out.println("Job was successful");
+        } else {
+            System.out.println("Job was not successful");
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Constructor for RFConversion.
+     * @param typeSpecification Attributes' type(categorical/continuous) specification.
+     * @param delimiter Data CSV file delimiter.
+     */
+    public RFConversion(ArrayList<Boolean> typeSpecification, String delimiter) {
+        this.typeSpecification = "";
+        for (int i = 0; i < typeSpecification.size(); i ++) {
+            this.typeSpecification += (typeSpecification.get(i) ? "1" : "0");
+        }
+        this.delimiter = delimiter;
+    }
+}
@@ -0,0 +1,1128 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.Partitioner;
+import org.apache.hadoop.mapreduce.RecordReader;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.TaskCounter;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.LazyOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.IntBuffer;
+import java.util.*;
+
+/**
+ * This class is the feature parallel distributed training of Random Forest for wide training data, where the cost
+ * of a node is dominated by the number of attributes rather than rows. Columns are partitioned into slices, each task
+ * owns all rows of a few attributes. It's independent from RFMapReduce, and writes the same forest model file.
+ *
+ * This structure is as follows:
+ * ===============================================================================================================
+ * | 1. A slicing job transposes the training data into column slices, each slice file is written once with its
+ * |    attributes and the label of every row as binary columns(DatasetFile), rows in the same order in every
+ * |    slice, followed by the rows sorted by each continuous attribute of the slice.
+ * | 2. Trees are grown level by level, each level is two map only jobs with one mapper per slice:
+ * |    1). Each mapper loads its slice and sorted order without parsing or sorting, then for each tree sweeps
+ * |        every attribute once for all of the tree's frontier nodes, and returns only its local best split of
+ * |        each node.
+ * |    2). The driver picks the best split of each node among the slices.
+ * |    3). The mapper owning each winning attribute returns a bitmap of the node's rows going left.
+ * |    4). The driver broadcasts the new row partition, the frontier node of every row in every tree.
+ * | 3. The driver writes the forest as FOREST_FILE in the output directory.
+ * ===============================================================================================================
+ * Each row's weight in each tree's bootstrap sample is a Poisson draw hashed from the row's number, like
+ * RFLevelWise.
+ */
+public class RFFeatureParallel {
+    // Configuration.
+    public Configuration conf;
+
+    //MapReduce Job.
+    public Job job;
+
+    // Attributes' type(categorical/continuous) specification.
+    private ArrayList<Boolean> typeSpecification;
+
+    // The useful choosen attributes.
+    private ArrayList<Boolean> chosenAttributes;
+
+    // Data CSV file delimiter.
+    private String delimiter;
+
+    // The random factor for training subset selection, the mean of each row's Poisson weight when bagging.
+    public double trainSubsetFraction;
+
+    // Indicates the Random subspace in Random Forest.
+    public int attrSubspaceNum;
+
+    // The seed of the forest, the same seed grows the same forest.
+    public long seed;
+
+    // The number of trees.
+    private int numOfTrees;
+
+    // The number of rows.
+    private int numOfRows;
+
+    // Dictionaries of the forest, extended with labels and categories found in the splits.
+    private Dataset schema;
+
+    // Root node of each tree.
+    private List<Node> roots;
+
+    // Remaining attributes of each node that isn't grown yet.
+    private Map<Node, ArrayList<Integer>> remainingAttributes;
+
+    // Nodes grown in the current level, a node's id is its index.
+    private List<Node> frontier;
+
+    // The row partition, the frontier node id of each row in each tree, -1 if the row is at a leaf.
+    private int[][] partition;
+
+    // Random generator for attributes subspace selection.
+    private Random random;
+
+    /**
+     * Mapper class for slicing.
+     * Each RFSlicingMapper Instance sends every row's values of each slice to the slice's reducer.
+     */
+    public static class RFSlicingMapper extends Mapper<LongWritable, Text, Text, Text> {
+        // Data CSV file delimiter.
+        String delimiter;
+
+        // The number of attributes.
+        int numOfAttributes;
+
+        // Attributes of each slice.
+        List<List<Integer>> slices;
+
+        // Index of the input file, orders the rows with their offsets.
+        int fileIndex;
+
+        // Output key and value, reused for every row.
+        Text sliceRow;
+        Text values;
+
+        // Builds the values of a slice.
+        StringBuilder builder;
+
+        // Tokenizer of data lines, reused for every line.
+        CsvTokenizer tokens;
+
+        /**
+         * Overridden setup method to find the slices.
+         * @param context The job context.
+         */
+        @Override
+        protected void setup(Context context) {
+            Configuration conf = context.getConfiguration();
+            delimiter = conf.get("delimiter");
+            numOfAttributes = conf.get("typeSpecification").length();
+            slices = slices(RFLevelWise.parseFlags(conf.get("chosenAttributes")), conf.getInt("numOfSlices", 1));
+            String file = ((FileSplit) context.getInputSplit()).getPath().toString();
+            fileIndex = Arrays.asList(conf.getStrings("inputFiles")).indexOf(file);
+            sliceRow = new Text();
+            values = new Text();
+            builder = new StringBuilder();
+            tokens = new CsvTokenizer(delimiter);
+        }
+
+        /**
+         * Split one row into its slices.
+         * @param key   The offset of the row.
+         * @param value The row.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            // Rows without one value per attribute plus the label are skipped.
+            if (tokens.tokenize(value) != numOfAttributes + 1) {
+                return;
+            }
+
+            for (int slice = 0; slice < slices.size(); slice ++) {
+                builder.setLength(0);
+                for (Integer attrIdx: slices.get(slice)) {
+                    tokens.append(attrIdx, builder);
+                    builder.append(delimiter);
+                }
+                tokens.append(numOfAttributes, builder);
+
+                // Fixed width numbers sort the rows by file then offset in every slice.
+                sliceRow.set(String.format("%06d:%06d:%019d", slice, fileIndex, key.get()));
+                values.set(builder.toString());
+                context.write(sliceRow, values);
+            }
+        }
+    }
+
+    /**
+     * Partitioner class for slicing, sends every row of a slice to the slice's reducer.
+     */
+    public static class RFSlicePartitioner extends Partitioner<Text, Text> {
+        @Override
+        public int getPartition(Text key, Text value, int numPartitions) {
+            return Integer.parseInt(key.toString().substring(0, 6)) % numPartitions;
+        }
+    }
+
+    /**
+     * Reducer class for slicing.
+     * Each RFSlicingReducer Instance writes its slices once as binary columns, rows in the same order as other
+     * slices, followed by the rows sorted by each continuous attribute of the slice.
+     */
+    public static class RFSlicingReducer extends Reducer<Text, Text, NullWritable, Text> {
+        // Configuration.
+        Configuration conf;
+
+        // Index of the slice being collected, -1 before the first row.
+        int sliceIdx;
+
+        // The rows of the slice being collected.
+        Dataset slice;
+
+        // Tokenizer of slice rows, reused for every row.
+        CsvTokenizer tokens;
+
+        /**
+         * Overridden setup method to create the tokenizer.
+         * @param context The job context.
+         */
+        @Override
+        protected void setup(Context context) {
+            conf = context.getConfiguration();
+            sliceIdx = -1;
+            tokens = new CsvTokenizer(conf.get("delimiter"));
+        }
+
+        /**
+         * Add one row to its slice, rows come sorted by slice then row.
+         * @param key   The slice and the row.
+         * @param values The row's values of the slice.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            int idx = Integer.parseInt(key.toString().substring(0, 6));
+            if (idx != sliceIdx) {
+                writeSlice(context);
+                sliceIdx = idx;
+                slice = newSlice(conf, sliceIdx);
+            }
+            for (Text val: values) {
+                tokens.tokenize(val);
+                slice.add(tokens);
+            }
+        }
+
+        /**
+         * Overridden cleanup method to write the last slice.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            writeSlice(context);
+        }
+
+        /**
+         * Sort the collected slice's continuous attributes and write the slice file.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        private void writeSlice(Context context) throws IOException, InterruptedException {
+            if (slice == null) {
+                return;
+            }
+            ArrayList<Boolean> all = new ArrayList<>(Collections.nCopies(slice.numOfAttributes(), true));
+            SortedIndex index = new SortedIndex(slice, all, true, null, false);
+
+            Path path = new Path(FileOutputFormat.getWorkOutputPath(context), String.format("slice-%05d", sliceIdx));
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    path.getFileSystem(conf).create(path, true), DatasetFile.BUFFER_SIZE))) {
+                DatasetFile.write(slice, out);
+                for (IntBuffer sorted: index.sorted) {
+                    if (sorted != null) {
+                        for (int k = 0; k < index.size; k ++) {
+                            out.writeInt(sorted.get(k));
+                        }
+                    }
+                }
+            }
+            slice = null;
+        }
+    }
+
+    /**
+     * Input format of slice files, each slice file is loaded whole by one mapper in its setup, so no records are
+     * read.
+     */
+    public static class RFSliceInputFormat extends FileInputFormat<NullWritable, NullWritable> {
+        @Override
+        protected boolean isSplitable(JobContext context, Path file) {
+            return false;
+        }
+
+        @Override
+        public RecordReader<NullWritable, NullWritable> createRecordReader(InputSplit split, TaskAttemptContext context) {
+            return new RecordReader<NullWritable, NullWritable>() {
+                @Override
+                public void initialize(InputSplit split, TaskAttemptContext context) {
+                }
+
+                @Override
+                public boolean nextKeyValue() {
+                    return false;
+                }
+
+                @Override
+                public NullWritable getCurrentKey() {
+                    return NullWritable.get();
+                }
+
+                @Override
+                public NullWritable getCurrentValue() {
+                    return NullWritable.get();
+                }
+
+                @Override
+                public float getProgress() {
+                    return 1.0f;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+    }
+
+    /**
+     * Base mapper class of a level's jobs, loads one slice and the row partition.
+     * @param <V> The output value class.
+     */
+    public abstract static class RFSliceMapper<V extends Writable> extends Mapper<NullWritable, NullWritable, IntWritable, V> {
+        // Configuration.
+        Configuration conf;
+
+        // Attributes of the slice.
+        List<Integer> attributes;
+
+        // The rows of the slice, its attribute i is the slice's attribute attributes.get(i).
+        Dataset slice;
+
+        // Rows sorted by each continuous attribute of the slice, NULL for categorical attributes.
+        int[][] sorted;
+
+        // The row partition, the frontier node id of each row in each tree.
+        int[][] partition;
+
+        // Allowed attributes of each frontier node.
+        List<int[]> allowed;
+
+        /**
+         * Overridden setup method to load the slice and its sorted order, and read the row partition.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         */
+        @Override
+        protected void setup(Context context) throws IOException {
+            conf = context.getConfiguration();
+
+            Path slicePath = ((FileSplit) context.getInputSplit()).getPath();
+            String name = slicePath.getName();
+            int sliceIdx = Integer.parseInt(name.substring(name.lastIndexOf('-') + 1));
+            attributes = slices(RFLevelWise.parseFlags(conf.get("chosenAttributes")), conf.getInt("numOfSlices", 1)).get(sliceIdx);
+            slice = newSlice(conf, sliceIdx);
+            sorted = new int[attributes.size()][];
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                    slicePath.getFileSystem(conf).open(slicePath), DatasetFile.BUFFER_SIZE))) {
+                DatasetFile.read(in, slice);
+                for (int i = 0; i < attributes.size(); i ++) {
+                    if (!slice.typeSpecification.get(i)) {
+                        sorted[i] = new int[slice.size];
+                        for (int k = 0; k < slice.size; k ++) {
+                            sorted[i][k] = in.readInt();
+                        }
+                    }
+                }
+            }
+
+            Path partitionPath = new Path(conf.get("partitionPath"));
+            try (FSDataInputStream in = partitionPath.getFileSystem(conf).open(partitionPath)) {
+                partition = readPartition(in);
+                allowed = new ArrayList<>();
+                int numOfNodes = in.readInt();
+                for (int node = 0; node < numOfNodes; node ++) {
+                    int[] attrs = new int[in.readInt()];
+                    for (int i = 0; i < attrs.length; i ++) {
+                        attrs[i] = in.readInt();
+                    }
+                    allowed.add(attrs);
+                }
+            }
+        }
+
+        /**
+         * The weight of each row in a tree's bootstrap sample.
+         * @param tree The tree index.
+         * @return The weights.
+         */
+        int[] weights(int tree) {
+            int numOfTrees = partition.length;
+            long seed = conf.getLong("seed", 0);
+            double mean = conf.getDouble("trainSubsetFraction", 1.0);
+            int[] weights = new int[slice.size];
+            for (int row = 0; row < slice.size; row ++) {
+                weights[row] = RFLevelWise.weight(seed, tree, 0, row, numOfTrees, mean);
+            }
+            return weights;
+        }
+    }
+
+    /**
+     * Mapper class for finding splits of one level.
+     * Each RFSplitMapper Instance finds its slice's best split of every frontier node.
+     */
+    public static class RFSplitMapper extends RFSliceMapper<SplitWritable> {
+        /**
+         * Sweep every attribute of the slice once per tree, for all of the tree's frontier nodes at a time, continuous
+         * attributes in the slice's sorted order.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            int numOfNodes = allowed.size();
+            int numOfClasses = slice.labelDictionary.size();
+            int[] labels = slice.labels;
+
+            // allowedHere[node][i] indicates the slice's attribute i is allowed at the node.
+            boolean[][] allowedHere = new boolean[numOfNodes][attributes.size()];
+            boolean[] anyHere = new boolean[numOfNodes];
+            for (int node = 0; node < numOfNodes; node ++) {
+                for (int attrIdx: allowed.get(node)) {
+                    int i = attributes.indexOf(attrIdx);
+                    if (i >= 0) {
+                        allowedHere[node][i] = true;
+                        anyHere[node] = true;
+                    }
+                }
+            }
+
+            SplitWritable[] best = new SplitWritable[numOfNodes];
+            long[][] pos = new long[numOfNodes][numOfClasses];
+            long[][] neg = new long[numOfNodes][numOfClasses];
+            long[] posNum = new long[numOfNodes];
+            double[] previous = new double[numOfNodes];
+            boolean[] seen = new boolean[numOfNodes];
+
+            for (int tree = 0; tree < partition.length; tree ++) {
+                int[] nodes = partition[tree];
+                int[] weights = weights(tree);
+
+                // Label counts of each node.
+                long[][] total = new long[numOfNodes][];
+                long[] n = new long[numOfNodes];
+                for (int row = 0; row < slice.size; row ++) {
+                    int node = nodes[row];
+                    if (node < 0 || weights[row] == 0 || !anyHere[node]) {
+                        continue;
+                    }
+                    if (total[node] == null) {
+                        total[node] = new long[numOfClasses];
+                        best[node] = newSplit(total[node], slice);
+                    }
+                    total[node][labels[row]] += weights[row];
+                    n[node] += weights[row];
+                }
+
+                for (int i = 0; i < attributes.size(); i ++) {
+                    if (!slice.typeSpecification.get(i)) {     // Continuous, one sweep in sorted order
+                        for (int node = 0; node < numOfNodes; node ++) {
+                            if (total[node] != null) {
+                                Arrays.fill(pos[node], 0);
+                                posNum[node] = 0;
+                                seen[node] = false;
+                            }
+                        }
+                        double[] values = slice.continuous[i];
+                        for (int k = 0; k < slice.size; k ++) {
+                            int row = sorted[i][k];
+                            int node = nodes[row];
+                            if (node < 0 || weights[row] == 0 || total[node] == null || !allowedHere[node][i]) {
+                                continue;
+                            }
+
+                            // A boundary between the node's previous value and this one. Missing values are sorted
+                            // last and go right, the only boundary next to them separates them from the others.
+                            if (seen[node] && values[row] != previous[node] && !Double.isNaN(previous[node])) {
+                                double entropy = splitEntropy(pos[node], neg[node], total[node], posNum[node], n[node]);
+                                if (entropy < best[node].entropy) {
+                                    setSplit(best[node], attributes.get(i), entropy, pos[node]);
+                                    best[node].threshold = Double.isNaN(values[row])
+                                            ? Double.POSITIVE_INFINITY : (previous[node] + values[row]) / 2.0;
+                                }
+                            }
+                            pos[node][labels[row]] += weights[row];
+                            posNum[node] += weights[row];
+                            previous[node] = values[row];
+                            seen[node] = true;
+                        }
+                    } else {        // Categorical, one category against the others
+                        int numOfCategories = slice.categoryDictionaries[i].size();
+                        long[][][] counts = new long[numOfNodes][][];
+                        int[] categories = slice.categorical[i];
+                        for (int row = 0; row < slice.size; row ++) {
+                            int node = nodes[row];
+                            if (node < 0 || weights[row] == 0 || total[node] == null || !allowedHere[node][i]) {
+                                continue;
+                            }
+                            if (counts[node] == null) {
+                                counts[node] = new long[numOfCategories][numOfClasses];
+                            }
+                            counts[node][categories[row]][labels[row]] += weights[row];
+                        }
+                        for (int node = 0; node < numOfNodes; node ++) {
+                            if (counts[node] == null) {
+                                continue;
+                            }
+                            for (int category = 0; category < numOfCategories; category ++) {
+                                long num = 0;
+                                for (long count: counts[node][category]) {
+                                    num += count;
+                                }
+                                if (num == 0 || num == n[node]) {
+                                    continue;
+                                }
+                                double entropy = splitEntropy(counts[node][category], neg[node], total[node], num, n[node]);
+                                if (entropy < best[node].entropy) {
+                                    setSplit(best[node], attributes.get(i), entropy, counts[node][category]);
+                                    best[node].bucket.set(slice.categoryDictionaries[i].decode(category));
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+
+            IntWritable key = new IntWritable();
+            for (int node = 0; node < numOfNodes; node ++) {
+                if (best[node] != null) {
+                    key.set(node);
+                    context.write(key, best[node]);
+                }
+            }
+        }
+
+        /**
+         * A utility to create a node's split before any boundary is found.
+         * @param total The node's label counts.
+         * @param slice The slice, for label names.
+         * @return The split.
+         */
+        private static SplitWritable newSplit(long[] total, Dataset slice) {
+            SplitWritable split = new SplitWritable();
+            split.entropy = Double.MAX_VALUE;
+            split.labels = new Text[total.length];
+            for (int c = 0; c < total.length; c ++) {
+                split.labels[c] = new Text(slice.labelDictionary.decode(c));
+            }
+            split.total = total;
+            split.left = new long[total.length];
+            return split;
+        }
+
+        /**
+         * A utility to update a node's best split.
+         * @param split The node's split.
+         * @param attrIdx The attribute.
+         * @param entropy The entropy.
+         * @param left Label counts going left.
+         */
+        private static void setSplit(SplitWritable split, int attrIdx, double entropy, long[] left) {
+            split.attribute = attrIdx;
+            split.entropy = entropy;
+            System.arraycopy(left, 0, split.left, 0, left.length);
+        }
+
+        /**
+         * A utility to calculate the weighted entropy of the children.
+         * @param pos Label counts going left.
+         * @param neg Scratch space for label counts going right.
+         * @param total Label counts of the node.
+         * @param posNum The count going left.
+         * @param n The count of the node.
+         * @return The entropy.
+         */
+        private static double splitEntropy(long[] pos, long[] neg, long[] total, long posNum, long n) {
+            for (int c = 0; c < total.length; c ++) {
+                neg[c] = total[c] - pos[c];
+            }
+            double posFraction = (posNum * 1.0) / n;
+            double posEntropy = posFraction * RFLevelWise.entropy(pos, posNum);
+            double negEntropy = (1 - posFraction) * RFLevelWise.entropy(neg, n - posNum);
+            return posEntropy + negEntropy;
+        }
+    }
+
+    /**
+     * Mapper class for partitioning rows of one level.
+     * Each RFPartitionMapper Instance returns the bitmap of rows going left of every node whose winning attribute
+     * is in its slice.
+     */
+    public static class RFPartitionMapper extends RFSliceMapper<BytesWritable> {
+        /**
+         * Apply the winning splits owned by the slice.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            // The winners of the slice's attributes, each as {attribute, threshold or category}.
+            Map<Integer, String[]> winners = new HashMap<>();
+            Path winnersPath = new Path(conf.get("winnersPath"));
+            try (FSDataInputStream in = winnersPath.getFileSystem(conf).open(winnersPath)) {
+                int numOfWinners = in.readInt();
+                for (int w = 0; w < numOfWinners; w ++) {
+                    int node = in.readInt();
+                    String[] winner = new String[]{in.readUTF(), in.readUTF()};
+                    if (attributes.contains(Integer.parseInt(winner[0]))) {
+                        winners.put(node, winner);
+                    }
+                }
+            }
+
+            // Bit k of a node's bitmap is the node's k-th row in row order.
+            Map<Integer, BitSet> bitmaps = new HashMap<>();
+            Map<Integer, Integer> counts = new HashMap<>();
+            for (int[] nodes: partition) {
+                for (int row = 0; row < slice.size; row ++) {
+                    String[] winner = winners.get(nodes[row]);
+                    if (winner == null) {
+                        continue;
+                    }
+                    int node = nodes[row];
+                    int k = counts.containsKey(node) ? counts.get(node) : 0;
+                    counts.put(node, k + 1);
+                    if (!bitmaps.containsKey(node)) {
+                        bitmaps.put(node, new BitSet());
+                    }
+                    int i = attributes.indexOf(Integer.parseInt(winner[0]));
+                    boolean goesLeft = slice.typeSpecification.get(i)
+                            ? slice.categorical[i][row] == slice.categoryDictionaries[i].lookup(winner[1])
+                            : slice.continuous[i][row] <= Double.parseDouble(winner[1]);
+                    if (goesLeft) {
+                        bitmaps.get(node).set(k);
+                    }
+                }
+            }
+
+            IntWritable key = new IntWritable();
+            for (Map.Entry<Integer, BitSet> entry: bitmaps.entrySet()) {
+                key.set(entry.getKey());
+                context.write(key, new BytesWritable(entry.getValue().toByteArray()));
+            }
+        }
+    }
+
+    /**
+     * A utility to partition the chosen attributes into slices, round robin.
+     * @param chosenAttributes The useful choosen attributes.
+     * @param numOfSlices The number of slices.
+     * @return Attributes of each slice.
+     */
+    static List<List<Integer>> slices(List<Boolean> chosenAttributes, int numOfSlices) {
+        List<List<Integer>> slices = new ArrayList<>();
+        for (int slice = 0; slice < numOfSlices; slice ++) {
+            slices.add(new ArrayList<Integer>());
+        }
+        int k = 0;
+        for (int attrIdx = 0; attrIdx < chosenAttributes.size(); attrIdx ++) {
+            if (chosenAttributes.get(attrIdx)) {
+                slices.get(k ++ % numOfSlices).add(attrIdx);
+            }
+        }
+        return slices;
+    }
+
+    /**
+     * A utility to create an empty slice.
+     * @param conf The configuration.
+     * @param sliceIdx The slice index.
+     * @return The slice, its attribute i is the slice's i-th attribute.
+     */
+    static Dataset newSlice(Configuration conf, int sliceIdx) {
+        List<Integer> attributes = slices(RFLevelWise.parseFlags(conf.get("chosenAttributes")), conf.getInt("numOfSlices", 1)).get(sliceIdx);
+        ArrayList<Boolean> typeSpec = RFLevelWise.parseFlags(conf.get("typeSpecification"));
+        ArrayList<Boolean> sliceTypeSpec = new ArrayList<>();
+        for (Integer attrIdx: attributes) {
+            sliceTypeSpec.add(typeSpec.get(attrIdx));
+        }
+        return new Dataset(sliceTypeSpec);
+    }
+
+    /**
+     * A utility to read the row partition.
+     * @param in The partition file.
+     * @return The frontier node id of each row in each tree.
+     * @throws IOException In case of IOException.
+     */
+    static int[][] readPartition(DataInputStream in) throws IOException {
+        int numOfTrees = in.readInt();
+        int numOfRows = in.readInt();
+        int[][] partition = new int[numOfTrees][numOfRows];
+        for (int tree = 0; tree < numOfTrees; tree ++) {
+            for (int row = 0; row < numOfRows; row ++) {
+                partition[tree][row] = in.readInt();
+            }
+        }
+        return partition;
+    }
+
+    /**
+     * The driver method used to grow the forest.
+     * @param args  [input training data folder] [output folder] [number of trees] [number of slices].
+     * @return Indicate if the jobs are completely successfully.
+     * @throws Exception In case of Exception.
+     */
+    public int FeatureParallelDriver(String[] args) throws Exception {
+        this.conf = new Configuration();
+        Path input = new Path(args[0]);
+        Path output = new Path(args[1]);
+        Path work = new Path(output, "_slices");
+        this.numOfTrees = Integer.parseInt(args[2]);
+
+        int numOfChosen = 0;
+        for (Boolean chosen: this.chosenAttributes) {
+            numOfChosen += chosen ? 1 : 0;
+        }
+        int numOfSlices = Math.max(1, Math.min(Integer.parseInt(args[3]), numOfChosen));
+
+        // Configuration are used to pass in parameters for Mappers and Reducers.
+        this.conf.set("typeSpecification", RFLevelWise.toFlags(this.typeSpecification));
+        this.conf.set("chosenAttributes", RFLevelWise.toFlags(this.chosenAttributes));
+        this.conf.set("delimiter", this.delimiter);
+        this.conf.setInt("numOfSlices", numOfSlices);
+        this.conf.setLong("seed", this.seed);
+        this.conf.setDouble("trainSubsetFraction", this.trainSubsetFraction);
+
+        FileSystem fs = output.getFileSystem(this.conf);
+
+        // Input files in a fixed order, rows are numbered by file then offset.
+        List<String> inputFiles = new ArrayList<>();
+        for (FileStatus file: fs.listStatus(input)) {
+            String name = file.getPath().getName();
+            if (file.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                inputFiles.add(file.getPath().toString());
+            }
+        }
+        Collections.sort(inputFiles);
+        this.conf.setStrings("inputFiles", inputFiles.toArray(new String[0]));
+
+        Path slicesPath = new Path(work, "slices");
+        if (!runSlicing(input, slicesPath, numOfSlices)) {
+            return 1;
+        }
+        this.numOfRows = (int) (this.job.getCounters().findCounter(TaskCounter.REDUCE_INPUT_RECORDS).getValue() / numOfSlices);
+
+        // Every tree starts with its root in the frontier, every row at the root.
+        this.schema = new Dataset(this.typeSpecification);
+        this.random = new Random(this.seed);
+        this.roots = new ArrayList<>();
+        this.remainingAttributes = new HashMap<>();
+        this.frontier = new ArrayList<>();
+        this.partition = new int[this.numOfTrees][this.numOfRows];
+        ArrayList<Integer> attributes = new ArrayList<>();
+        for (int attrIdx = 0; attrIdx < this.typeSpecification.size(); attrIdx ++) {
+            attributes.add(attrIdx);
+        }
+        for (int tree = 0; tree < this.numOfTrees; tree ++) {
+            Node root = new Node(RFLevelWise.FRONTIER);
+            this.roots.add(root);
+            this.remainingAttributes.put(root, attributes);
+            this.frontier.add(root);
+            Arrays.fill(this.partition[tree], tree);
+        }
+
+        // Grow level by level.
+        for (int level = 0; !this.frontier.isEmpty(); level ++) {
+            Path levelPath = new Path(work, "level-" + level);
+
+            Path partitionPath = new Path(levelPath, "partition");
+            writePartition(fs, partitionPath);
+            this.conf.set("partitionPath", partitionPath.toString());
+            if (!runLevel(slicesPath, new Path(levelPath, "splits"), RFSplitMapper.class, SplitWritable.class, "RandomForestSplits" + level)) {
+                return 1;
+            }
+            Map<Integer, List<SplitWritable>> splits = readSplits(fs, new Path(levelPath, "splits"));
+
+            // The winner of each node that splits, and its children's ids in the next frontier.
+            List<Node> next = new ArrayList<>();
+            Map<Integer, SplitWritable> winners = new TreeMap<>();
+            for (int node = 0; node < this.frontier.size(); node ++) {
+                SplitWritable winner = expand(this.frontier.get(node), splits.get(node), next);
+                if (winner != null) {
+                    winners.put(node, winner);
+                }
+            }
+            Map<Node, Integer> ids = new IdentityHashMap<>();
+            for (int node = 0; node < next.size(); node ++) {
+                ids.put(next.get(node), node);
+            }
+            Map<Integer, int[]> children = new HashMap<>();
+            for (Integer node: winners.keySet()) {
+                Node parent = this.frontier.get(node);
+                children.put(node, new int[]{ids.containsKey(parent.left) ? ids.get(parent.left) : -1,
+                        ids.containsKey(parent.right) ? ids.get(parent.right) : -1});
+            }
+
+            if (!next.isEmpty()) {
+                Path winnersPath = new Path(levelPath, "winners");
+                writeWinners(fs, winnersPath, winners);
+                this.conf.set("winnersPath", winnersPath.toString());
+                if (!runLevel(slicesPath, new Path(levelPath, "bitmaps"), RFPartitionMapper.class, BytesWritable.class, "RandomForestPartition" + level)) {
+                    return 1;
+                }
+                updatePartition(readBitmaps(fs, new Path(levelPath, "bitmaps")), children);
+            }
+            this.frontier = next;
+        }
+
+        CompiledForest.compile(this.roots, this.schema).write(fs, new Path(output, RFMapReduce.FOREST_FILE));
+        fs.delete(work, true);
+
+        System.out.println("Job was successful");
+        return 0;
+    }
+
+    /**
+     * Run the slicing job.
+     * @param input The training data.
+     * @param output The slices.
+     * @param numOfSlices The number of slices.
+     * @return Indicate if the job is completely successfully.
+     * @throws Exception In case of Exception.
+     */
+    private boolean runSlicing(Path input, Path output, int numOfSlices) throws Exception {
+        this.job = Job.getInstance(this.conf, "RandomForestSlicing");
+        this.job.setJarByClass(RFFeatureParallel.class);
+        this.job.setMapperClass(RFSlicingMapper.class);
+        this.job.setPartitionerClass(RFSlicePartitioner.class);
+        this.job.setReducerClass(RFSlicingReducer.class);
+        this.job.setNumReduceTasks(numOfSlices);
+
+        FileInputFormat.addInputPath(this.job, input);
+        this.job.setInputFormatClass(TextInputFormat.class);
+        FileOutputFormat.setOutputPath(this.job, output);
+        // Reducers write their slice files themselves, no empty part files are left among them.
+        LazyOutputFormat.setOutputFormatClass(this.job, TextOutputFormat.class);
+
+        this.job.setMapOutputKeyClass(Text.class);
+        this.job.setMapOutputValueClass(Text.class);
+        this.job.setOutputKeyClass(NullWritable.class);
+        this.job.setOutputValueClass(Text.class);
+
+        return this.job.waitForCompletion(true);
+    }
+
+    /**
+     * Run one map only job over the slices.
+     * @param slices The slices.
+     * @param output The output of the job.
+     * @param mapper The mapper class.
+     * @param valueClass The output value class.
+     * @param name The job name.
+     * @return Indicate if the job is completely successfully.
+     * @throws Exception In case of Exception.
+     */
+    private boolean runLevel(Path slices, Path output, Class<? extends Mapper<?, ?, ?, ?>> mapper, Class<?> valueClass, String name) throws Exception {
+        this.job = Job.getInstance(this.conf, name);
+        this.job.setJarByClass(RFFeatureParallel.class);
+        this.job.setMapperClass(mapper);
+        this.job.setNumReduceTasks(0);
+
+        FileInputFormat.addInputPath(this.job, slices);
+        this.job.setInputFormatClass(RFSliceInputFormat.class);
+        FileOutputFormat.setOutputPath(this.job, output);
+        this.job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        this.job.setOutputKeyClass(IntWritable.class);
+        this.job.setOutputValueClass(valueClass);
+
+        return this.job.waitForCompletion(true);
+    }
+
+    /**
+     * Write the row partition and the allowed attributes of each frontier node, a random subspace in Random
+     * Forest.
+     * @param fs The file system.
+     * @param path The partition file path.
+     * @throws IOException In case of IOException.
+     */
+    private void writePartition(FileSystem fs, Path path) throws IOException {
+        try (FSDataOutputStream out = fs.create(path, true)) {
+            out.writeInt(this.numOfTrees);
+            out.writeInt(this.numOfRows);
+            for (int tree = 0; tree < this.numOfTrees; tree ++) {
+                for (int row = 0; row < this.numOfRows; row ++) {
+                    out.writeInt(this.partition[tree][row]);
+                }
+            }
+
+            out.writeInt(this.frontier.size());
+            for (Node node: this.frontier) {
+                ArrayList<Integer> candidates = new ArrayList<>();
+                for (Integer attrIdx: this.remainingAttributes.get(node)) {
+                    if (this.chosenAttributes.get(attrIdx)) {
+                        candidates.add(attrIdx);
+                    }
+                }
+                if (this.numOfTrees > 1 && candidates.size() > this.attrSubspaceNum) {
+                    for (int i = 0; i < this.attrSubspaceNum; i ++) {
+                        Collections.swap(candidates, i, i + this.random.nextInt(candidates.size() - i));
+                    }
+                    candidates = new ArrayList<>(candidates.subList(0, this.attrSubspaceNum));
+                }
+                out.writeInt(candidates.size());
+                for (Integer attrIdx: candidates) {
+                    out.writeInt(attrIdx);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read the best split of every node found by each slice.
+     * @param fs The file system.
+     * @param path The output of the splits.
+     * @return The splits of each node, by node id.
+     * @throws IOException In case of IOException.
+     */
+    private Map<Integer, List<SplitWritable>> readSplits(FileSystem fs, Path path) throws IOException {
+        Map<Integer, List<SplitWritable>> splits = new HashMap<>();
+        for (FileStatus part: fs.globStatus(new Path(path, "part-*"))) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(this.conf, SequenceFile.Reader.file(part.getPath()))) {
+                IntWritable node = new IntWritable();
+                SplitWritable split = new SplitWritable();
+                while (reader.next(node, split)) {
+                    if (!splits.containsKey(node.get())) {
+                        splits.put(node.get(), new ArrayList<SplitWritable>());
+                    }
+                    splits.get(node.get()).add(split);
+                    split = new SplitWritable();
+                }
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * Turn a frontier node into a leaf or split it with its best split.
+     * @param node The frontier node.
+     * @param splits The best split of each slice at the node, NULL if no row reached the node.
+     * @param next The next level's frontier, the node's children may be added to it.
+     * @return The winning split, NULL if the node is a leaf.
+     */
+    private SplitWritable expand(Node node, List<SplitWritable> splits, List<Node> next) {
+        ArrayList<Integer> remaining = this.remainingAttributes.remove(node);
+        if (splits == null || splits.isEmpty()) {
+            node.label = node.majorityLabel();
+            return null;
+        }
+
+        // Every split carries the node's label counts.
+        SplitWritable any = splits.get(0);
+        node.labelsCount = toLabelsCount(any.labels, any.total, null);
+
+        // The lowest entropy wins, the smaller attribute index wins a tie.
+        SplitWritable best = null;
+        for (SplitWritable split: splits) {
+            if (split.entropy == Double.MAX_VALUE) {
+                continue;
+            }
+            if (best == null || split.entropy < best.entropy
+                    || (split.entropy == best.entropy && split.attribute < best.attribute)) {
+                best = split;
+            }
+        }
+        if (best == null) {
+            node.label = node.majorityLabel();
+            return null;
+        }
+
+        node.bestAttribute = best.attribute;
+        if (this.typeSpecification.get(best.attribute)) {
+            node.category = this.schema.categoryDictionaries[best.attribute].encode(best.bucket.toString());
+        } else {
+            node.threshold = best.threshold;
+        }
+
+        ArrayList<Integer> childRemaining = new ArrayList<>(remaining);
+        childRemaining.remove(Integer.valueOf(best.attribute));
+        node.left = child(node, toLabelsCount(best.labels, best.left, null), childRemaining, next);
+        node.right = child(node, toLabelsCount(best.labels, best.total, best.left), childRemaining, next);
+        return best;
+    }
+
+    /**
+     * Create a child of a split node.
+     * @param parent The split node.
+     * @param labelsCount The child's label counts.
+     * @param remaining The child's remaining attributes.
+     * @param next The next level's frontier, the child may be added to it.
+     * @return The child.
+     */
+    private Node child(Node parent, int[] labelsCount, ArrayList<Integer> remaining, List<Node> next) {
+        int numOfLabels = 0;
+        for (int count: labelsCount) {
+            numOfLabels += count > 0 ? 1 : 0;
+        }
+        if (numOfLabels == 0) {
+            return new Node(parent.majorityLabel());
+        }
+
+        Node child = new Node(RFLevelWise.FRONTIER);
+        child.labelsCount = labelsCount;
+        if (numOfLabels == 1 || remaining.isEmpty()) {
+            child.label = child.majorityLabel();
+        } else {
+            this.remainingAttributes.put(child, remaining);
+            next.add(child);
+        }
+        return child;
+    }
+
+    /**
+     * A utility to turn label counts from a split into a dense count array of the forest's label ids.
+     * @param labels The labels.
+     * @param counts The count of each label.
+     * @param minus Counts subtracted from counts, NULL if none.
+     * @return The label counts.
+     */
+    private int[] toLabelsCount(Text[] labels, long[] counts, long[] minus) {
+        int[] ids = new int[labels.length];
+        for (int i = 0; i < labels.length; i ++) {
+            ids[i] = this.schema.labelDictionary.encode(labels[i].toString());
+        }
+        int[] labelsCount = new int[this.schema.labelDictionary.size()];
+        for (int i = 0; i < labels.length; i ++) {
+            labelsCount[ids[i]] += (int) (counts[i] - (minus == null ? 0 : minus[i]));
+        }
+        return labelsCount;
+    }
+
+    /**
+     * Write the winning split of each node that splits.
+     * @param fs The file system.
+     * @param path The winners file path.
+     * @param winners The winning split of each node.
+     * @throws IOException In case of IOException.
+     */
+    private void writeWinners(FileSystem fs, Path path, Map<Integer, SplitWritable> winners) throws IOException {
+        try (FSDataOutputStream out = fs.create(path, true)) {
+            out.writeInt(winners.size());
+            for (Map.Entry<Integer, SplitWritable> entry: winners.entrySet()) {
+                SplitWritable winner = entry.getValue();
+                out.writeInt(entry.getKey());
+                out.writeUTF(Integer.toString(winner.attribute));
+                out.writeUTF(this.typeSpecification.get(winner.attribute)
+                        ? winner.bucket.toString() : Double.toString(winner.threshold));
+            }
+        }
+    }
+
+    /**
+     * Read the bitmaps of rows going left returned by the slices.
+     * @param fs The file system.
+     * @param path The output of the bitmaps.
+     * @return The bitmap of each split node, by node id.
+     * @throws IOException In case of IOException.
+     */
+    private Map<Integer, BitSet> readBitmaps(FileSystem fs, Path path) throws IOException {
+        Map<Integer, BitSet> bitmaps = new HashMap<>();
+        for (FileStatus part: fs.globStatus(new Path(path, "part-*"))) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(this.conf, SequenceFile.Reader.file(part.getPath()))) {
+                IntWritable node = new IntWritable();
+                BytesWritable bitmap = new BytesWritable();
+                while (reader.next(node, bitmap)) {
+                    bitmaps.put(node.get(), BitSet.valueOf(Arrays.copyOf(bitmap.getBytes(), bitmap.getLength())));
+                }
+            }
+        }
+        return bitmaps;
+    }
+
+    /**
+     * Move every row to its frontier node of the next level.
+     * @param bitmaps The bitmap of rows going left of each split node.
+     * @param children The ids of each split node's children in the next frontier, -1 for a leaf.
+     */
+    private void updatePartition(Map<Integer, BitSet> bitmaps, Map<Integer, int[]> children) {
+        int[] counts = new int[this.frontier.size()];
+        for (int[] nodes: this.partition) {
+            for (int row = 0; row < this.numOfRows; row ++) {
+                int node = nodes[row];
+                if (node < 0) {
+                    continue;
+                }
+                int[] ids = children.get(node);
+                if (ids == null) {
+                    nodes[row] = -1;
+                    continue;
+                }
+                BitSet bitmap = bitmaps.get(node);
+                nodes[row] = bitmap != null && bitmap.get(counts[node] ++) ? ids[0] : ids[1];
+            }
+        }
+    }
+
+    /**
+     * Constructor for RFFeatureParallel.
+     * @param typeSpecification Attributes' type(categorical/continuous) specification.
+     * @param chosenAttributes A boolean array indicates the attributes that user choose to use/ignore.
+     * @param delimiter Data CSV file delimiter.
+     */
+    public RFFeatureParallel(ArrayList<Boolean> typeSpecification, ArrayList<Boolean> chosenAttributes, String delimiter) {
+        this.typeSpecification = typeSpecification;
+        this.chosenAttributes = chosenAttributes;
+        this.delimiter = delimiter;
+
+        this.trainSubsetFraction = 2.0 / 3.0;
+        this.attrSubspaceNum = (int) Math.sqrt(typeSpecification.size());
+        this.seed = System.nanoTime();
+    }
+}
@@ -2,15 +2,17 @@ import org.apache.hadoop.fs.BlockLocation;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.*;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * Created by d_d on 3/12/17.
@@ -23,7 +25,7 @@ import java.util.List;
  *
  * Actual data reading is done in RFRecordReader.
  */
-public class RFInputFormat extends FileInputFormat<IntWritable, Text> {
+public class RFInputFormat extends FileInputFormat<LongWritable, Text> {
     /**
      * Overridden method for customized record reader.
      * @param split For each input split, a record reader is returned as responsible
@@ -32,14 +34,16 @@ public class RFInputFormat extends FileInputFormat<IntWritable, Text> {
      * @return RecordReader Indicate which reader to use.
      */
     @Override
-    public RecordReader<IntWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
-        return (RecordReader) new RFRecordReader();
+    public RecordReader<LongWritable, Text> createRecordReader(InputSplit split, TaskAttemptContext context) {
+        return new RFRecordReader();
     }
 
     /**
-     * Overridden method for creating n number of InputSplits the same as the number of
-     * trees(Argument from command line.) This is essential for mapper as each input
-     * split is assign to a mapper in MapReduce framework.
+     * Overridden method for creating n / k number of InputSplits for n trees(Argument from command line)
+     * and k trees per split. This is essential for mapper as each input split is assign to a mapper in
+     * MapReduce framework.
+     * Every split reads all input files, so any host holding replicas of their blocks is a good place for it. Splits
+     * are spread over those hosts in proportion to the bytes each host holds, at most maxTasksPerHost per host.
      * @param job The job context.
      * @return  A list of input split.
      * @throws IOException In case of IOException.
@@ -48,19 +52,58 @@ public class RFInputFormat extends FileInputFormat<IntWritable, Text> {
     public List<InputSplit> getSplits(JobContext job) throws IOException {
         List<FileStatus> files = listStatus(job);
         int numOfTrees = Integer.parseInt(job.getConfiguration().get("numOfTrees"));
+        int treesPerSplit = job.getConfiguration().getInt("treesPerSplit", 1);
+        int maxTasksPerHost = job.getConfiguration().getInt("maxTasksPerHost", 0);
 
-        List<InputSplit> returnInputSplits = new ArrayList<InputSplit>();
+        // Each split grows treesPerSplit trees, the last one grows the rest.
+        int numOfSplits = (numOfTrees + treesPerSplit - 1) / treesPerSplit;
+
+        // All input files in full, e.g. every part file of an upstream job.
+        Path[] paths = new Path[files.size()];
+        long[] starts = new long[files.size()];
+        long[] lengths = new long[files.size()];
+
+        // Bytes of the files local to each host, over the replicas of all blocks.
+        Map<String, Long> localBytes = new TreeMap<>();
+        for (int f = 0; f < files.size(); f ++) {
+            FileStatus file = files.get(f);
+            paths[f] = file.getPath();
+            lengths[f] = file.getLen();
+            FileSystem fs = paths[f].getFileSystem(job.getConfiguration());
+            for (BlockLocation block: fs.getFileBlockLocations(file, 0, file.getLen())) {
+                for (String host: block.getHosts()) {
+                    Long bytes = localBytes.get(host);
+                    localBytes.put(host, (bytes == null ? 0 : bytes) + block.getLength());
+                }
+            }
+        }
+        Map<String, Integer> tasks = new TreeMap<>();
+        for (String host: localBytes.keySet()) {
+            tasks.put(host, 0);
+        }
 
-        for (int i = 0; i < numOfTrees; i ++) {
-            FileStatus file = files.get(0);
-            Path path = file.getPath();
-            FileSystem fs = path.getFileSystem(job.getConfiguration());
+        List<InputSplit> returnInputSplits = new ArrayList<InputSplit>();
 
-            // We don't actually need to use start/len for blkLocations. We're not reading
-            // the training set according to locations. Reading rules is done by RecordReader.
-            BlockLocation[] blkLocations = fs.getFileBlockLocations(file, 0, 1);
+        for (int i = 0; i < numOfSplits; i ++) {
+            // The host with the most local bytes per task placed on it, hosts at the limit are skipped.
+            String best = null;
+            for (String host: localBytes.keySet()) {
+                int placed = tasks.get(host);
+                if (maxTasksPerHost > 0 && placed >= maxTasksPerHost) {
+                    continue;
+                }
+                if (best == null || localBytes.get(host) * (tasks.get(best) + 1) > localBytes.get(best) * (placed + 1)) {
+                    best = host;
+                }
+            }
 
-            returnInputSplits.add(new FileSplit(path, 0, 1, blkLocations[0].getHosts()));
+            // Each split covers all files, RFRecordReader streams all of them.
+            if (best != null) {
+                tasks.put(best, tasks.get(best) + 1);
+                returnInputSplits.add(new CombineFileSplit(paths, starts, lengths, new String[]{best}));
+            } else {
+                returnInputSplits.add(new CombineFileSplit(paths, starts, lengths, new String[0]));
+            }
         }
         return returnInputSplits;
     }
@@ -0,0 +1,1125 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.SequenceFileOutputFormat;
+import org.apache.hadoop.mapreduce.lib.output.TextOutputFormat;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * This class is the distributed training of Random Forest for training data larger than one mapper's memory,
+ * in the style of PLANET(Panda et al., 2009). Trees are grown level by level, no task ever holds the whole data.
+ * It's independent from RFMapReduce, and writes the same forest model file.
+ *
+ * This structure is as follows:
+ * ===============================================================================================================
+ * | 1. The driver reads a sample of the training data to build the bins of continuous attributes.
+ * | 2. Trees are grown level by level, each level is one job over the row partitions of the training data:
+ * |    1). The driver picks the candidate attributes of each frontier node, a random subspace in Random Forest.
+ * |    2). Each mapper loads the partial trees, walks every row to its frontier node in each tree, and counts the
+ * |        labels in every bucket(bin or category) of every candidate attribute of the node.
+ * |    3). Each reducer merges the counts of one (node, attribute) and finds the attribute's best split.
+ * |    4). The driver picks the best split of each node, its children form the next level's frontier.
+ * | 3. Nodes with at most inMemoryThreshold weighted examples are handed off: one more job sends their rows to
+ * |    reducers, which grow the subtrees in memory with DecisionTree.
+ * | 4. The driver grafts the subtrees, and writes the forest as FOREST_FILE in the output directory.
+ * ===============================================================================================================
+ * Each row's weight in each tree's bootstrap sample is a Poisson draw hashed from the row's position, so every job
+ * sees the same samples without materializing them.
+ */
+public class RFLevelWise {
+    // Label of frontier nodes in the partial trees passed to mappers.
+    static final int FRONTIER = -1;
+
+    // Label of nodes waiting to be grown in memory in the partial trees passed to mappers.
+    static final int PENDING = -2;
+
+    // Configuration.
+    public Configuration conf;
+
+    //MapReduce Job.
+    public Job job;
+
+    // Attributes' type(categorical/continuous) specification.
+    private ArrayList<Boolean> typeSpecification;
+
+    // The useful choosen attributes.
+    private ArrayList<Boolean> chosenAttributes;
+
+    // Data CSV file delimiter.
+    private String delimiter;
+
+    // The random factor for training subset selection, the mean of each row's Poisson weight when bagging.
+    public double trainSubsetFraction;
+
+    // Indicates the Random subspace in Random Forest.
+    public int attrSubspaceNum;
+
+    // The maximum number of bins per continuous attribute.
+    public int numOfBins;
+
+    // Nodes with at most this many weighted examples are grown in memory.
+    public long inMemoryThreshold;
+
+    // The number of rows the driver reads to build the bins.
+    public int sampleSize;
+
+    // The seed of the forest, the same seed grows the same forest.
+    public long seed;
+
+    // The number of trees.
+    private int numOfTrees;
+
+    // Dictionaries of the forest, extended with labels and categories found in the splits.
+    private Dataset schema;
+
+    // The bins of continuous attributes.
+    private Binning binning;
+
+    // Root node of each tree.
+    private List<Node> roots;
+
+    // Remaining attributes of each node that isn't grown yet.
+    private Map<Node, ArrayList<Integer>> remainingAttributes;
+
+    // Candidate attributes of each frontier node in the current level.
+    private Map<Node, ArrayList<Integer>> candidateAttributes;
+
+    // Nodes grown in the next level.
+    private List<Node> frontier;
+
+    // Nodes grown in memory after all levels.
+    private List<Node> pending;
+
+    // Random generator for attributes subspace selection.
+    private Random random;
+
+    /**
+     * Mapper class for one level.
+     * Each RFLevelWiseMapper Instance counts the split statistics of every frontier node on one row partition.
+     */
+    public static class RFLevelWiseMapper extends Mapper<LongWritable, Text, Text, StatisticsWritable> {
+        // Data CSV file delimiter.
+        String delimiter;
+
+        // Candidate attributes of each frontier node, by node offset. Only they are counted.
+        Map<Integer, ArrayList<Boolean>> candidates;
+
+        // The partial trees.
+        CompiledForest forest;
+
+        // The bins of continuous attributes.
+        Binning binning;
+
+        // The row being read, reused for every row. It extends the forest's dictionaries with new values.
+        Dataset row;
+
+        // Identifies the input file in rows' positions.
+        long fileId;
+
+        // The seed of the forest.
+        long seed;
+
+        // The random factor for training subset selection.
+        double trainSubsetFraction;
+
+        // Statistics of each frontier node, by node offset.
+        Map<Integer, NodeStatistics> statistics;
+
+        // Tokenizer of data lines, reused for every line.
+        CsvTokenizer tokens;
+
+        /**
+         * Overridden setup method to load the partial trees and the bins.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         */
+        @Override
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            delimiter = conf.get("delimiter");
+            seed = conf.getLong("seed", 0);
+            trainSubsetFraction = conf.getDouble("trainSubsetFraction", 1.0);
+
+            forest = loadForest(conf);
+            binning = loadBinning(conf);
+
+            // Candidates as attribute flags, the layout NodeStatistics takes.
+            int numOfAttributes = conf.get("typeSpecification").length();
+            candidates = new HashMap<>();
+            for (Map.Entry<Integer, Set<Integer>> entry: readNodeAttributes(conf, "candidatesPath").entrySet()) {
+                ArrayList<Boolean> flags = new ArrayList<>();
+                for (int attrIdx = 0; attrIdx < numOfAttributes; attrIdx ++) {
+                    flags.add(entry.getValue().contains(attrIdx));
+                }
+                candidates.put(entry.getKey(), flags);
+            }
+            row = forest.newDataset();
+            fileId = ((FileSplit) context.getInputSplit()).getPath().toString().hashCode();
+            statistics = new HashMap<>();
+            tokens = new CsvTokenizer(delimiter);
+        }
+
+        /**
+         * Count one row at its frontier node of each tree.
+         * @param key   The offset of the row.
+         * @param value The row.
+         * @param context   The job context.
+         */
+        @Override
+        public void map(LongWritable key, Text value, Context context) {
+            row.clear();
+
+            // Rows without one value per attribute plus the label are skipped.
+            tokens.tokenize(value);
+            if (!row.add(tokens)) {
+                return;
+            }
+
+            for (int tree = 0; tree < forest.numOfTrees(); tree ++) {
+                int weight = weight(seed, tree, fileId, key.get(), forest.numOfTrees(), trainSubsetFraction);
+                if (weight == 0) {
+                    continue;
+                }
+                int node = forest.leaf(tree, row, 0);
+                if (forest.label.get(node) != FRONTIER) {
+                    continue;
+                }
+                NodeStatistics nodeStatistics = statistics.get(node);
+                if (nodeStatistics == null) {
+                    nodeStatistics = new NodeStatistics(candidates.get(node));
+                    statistics.put(node, nodeStatistics);
+                }
+                nodeStatistics.add(row, 0, weight, binning);
+            }
+        }
+
+        /**
+         * Write the statistics of every (node, candidate attribute), after all rows are counted.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        protected void cleanup(Context context) throws IOException, InterruptedException {
+            Text key = new Text();
+            StatisticsWritable value = new StatisticsWritable();
+            for (Map.Entry<Integer, NodeStatistics> entry: statistics.entrySet()) {
+                for (int attrIdx = 0; attrIdx < entry.getValue().counts.length; attrIdx ++) {
+                    if (entry.getValue().counts[attrIdx] == null) {
+                        continue;
+                    }
+                    entry.getValue().write(attrIdx, row, value);
+                    key.set(entry.getKey() + ":" + attrIdx);
+                    context.write(key, value);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reducer class for one level.
+     * Each reduce() call finds the best split of one attribute at one frontier node.
+     */
+    public static class RFLevelWiseReducer extends Reducer<Text, StatisticsWritable, Text, SplitWritable> {
+        // Attributes' type(categorical/continuous) specification.
+        ArrayList<Boolean> typeSpec;
+
+        /**
+         * Overridden setup method to read the attributes' types.
+         * @param context The job context.
+         */
+        @Override
+        protected void setup(Context context) {
+            typeSpec = parseFlags(context.getConfiguration().get("typeSpecification"));
+        }
+
+        /**
+         * Merge the statistics of one (node, attribute) and find the attribute's best split.
+         * @param key   "node:attribute".
+         * @param values    The statistics from mappers.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        public void reduce(Text key, Iterable<StatisticsWritable> values, Context context) throws IOException, InterruptedException {
+            String[] nodeAndAttr = key.toString().split(":");
+            int attrIdx = Integer.parseInt(nodeAndAttr[1]);
+
+            // Merge counts, counts.get(bucket)[label].
+            Dictionary buckets = new Dictionary();
+            Dictionary labels = new Dictionary();
+            List<long[]> counts = new ArrayList<>();
+            for (StatisticsWritable val: values) {
+                for (int i = 0; i < val.size(); i ++) {
+                    int bucket = buckets.encode(val.getBucket(i).toString());
+                    int label = labels.encode(val.getLabel(i).toString());
+                    if (bucket == counts.size()) {
+                        counts.add(new long[labels.size()]);
+                    }
+                    if (label >= counts.get(bucket).length) {
+                        counts.set(bucket, Arrays.copyOf(counts.get(bucket), labels.size()));
+                    }
+                    counts.get(bucket)[label] += val.getCount(i);
+                }
+            }
+
+            int numOfClasses = labels.size();
+            long[] total = new long[numOfClasses];
+            long n = 0;
+            for (long[] bucketCounts: counts) {
+                for (int c = 0; c < bucketCounts.length; c ++) {
+                    total[c] += bucketCounts[c];
+                    n += bucketCounts[c];
+                }
+            }
+
+            // Buckets in a fixed order: bins ascending, categories by name. Ties are then broken the same way
+            // whatever order mappers' statistics arrive in.
+            Integer[] order = new Integer[buckets.size()];
+            for (int b = 0; b < order.length; b ++) {
+                order[b] = b;
+            }
+            final boolean categorical = typeSpec.get(attrIdx);
+            final Dictionary bucketNames = buckets;
+            Arrays.sort(order, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer o1, Integer o2) {
+                    if (categorical) {
+                        return bucketNames.decode(o1).compareTo(bucketNames.decode(o2));
+                    }
+                    return Integer.compare(Integer.parseInt(bucketNames.decode(o1)), Integer.parseInt(bucketNames.decode(o2)));
+                }
+            });
+
+            SplitWritable split = new SplitWritable();
+            split.attribute = attrIdx;
+            split.entropy = Double.MAX_VALUE;
+            split.labels = new Text[numOfClasses];
+            for (int c = 0; c < numOfClasses; c ++) {
+                split.labels[c] = new Text(labels.decode(c));
+            }
+            split.total = total;
+            split.left = new long[numOfClasses];
+
+            long[] pos = new long[numOfClasses];
+            long[] neg = new long[numOfClasses];
+            long posNum = 0;
+            for (int b = 0; b < order.length; b ++) {
+                long[] bucketCounts = counts.get(order[b]);
+                if (categorical) {
+                    // One category against the others.
+                    Arrays.fill(pos, 0);
+                    posNum = 0;
+                }
+                for (int c = 0; c < bucketCounts.length; c ++) {
+                    pos[c] += bucketCounts[c];
+                    posNum += bucketCounts[c];
+                }
+                if (posNum == 0 || posNum == n) {
+                    continue;
+                }
+                for (int c = 0; c < numOfClasses; c ++) {
+                    neg[c] = total[c] - pos[c];
+                }
+
+                // Calculate pos and neg entropy.
+                double posFraction = (posNum * 1.0) / n;
+                double posEntropy = posFraction * entropy(pos, posNum);
+                double negEntropy = (1 - posFraction) * entropy(neg, n - posNum);
+
+                // Updating the best split.
+                if ((posEntropy + negEntropy) < split.entropy) {
+                    split.entropy = posEntropy + negEntropy;
+                    split.bucket.set(buckets.decode(order[b]));
+                    System.arraycopy(pos, 0, split.left, 0, numOfClasses);
+                }
+            }
+
+            context.write(new Text(nodeAndAttr[0]), split);
+        }
+    }
+
+    /**
+     * Mapper class for handing off small nodes.
+     * Each RFHandOffMapper Instance sends the rows of every pending node on one row partition to the reducers.
+     */
+    public static class RFHandOffMapper extends Mapper<LongWritable, Text, Text, Text> {
+        // Data CSV file delimiter.
+        String delimiter;
+
+        // The partial trees.
+        CompiledForest forest;
+
+        // The row being read, reused for every row.
+        Dataset row;
+
+        // Identifies the input file in rows' positions.
+        long fileId;
+
+        // The seed of the forest.
+        long seed;
+
+        // The random factor for training subset selection.
+        double trainSubsetFraction;
+
+        // Output key and value, reused for every row.
+        Text node;
+        Text weightedRow;
+
+        // Tokenizer of data lines, reused for every line.
+        CsvTokenizer tokens;
+
+        /**
+         * Overridden setup method to load the partial trees.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         */
+        @Override
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            delimiter = conf.get("delimiter");
+            seed = conf.getLong("seed", 0);
+            trainSubsetFraction = conf.getDouble("trainSubsetFraction", 1.0);
+
+            forest = loadForest(conf);
+            row = forest.newDataset();
+            fileId = ((FileSplit) context.getInputSplit()).getPath().toString().hashCode();
+            node = new Text();
+            weightedRow = new Text();
+            tokens = new CsvTokenizer(delimiter);
+        }
+
+        /**
+         * Send one row to its pending node of each tree, along with its weight.
+         * @param key   The offset of the row.
+         * @param value The row.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            row.clear();
+            tokens.tokenize(value);
+            if (!row.add(tokens)) {
+                return;
+            }
+
+            for (int tree = 0; tree < forest.numOfTrees(); tree ++) {
+                int weight = weight(seed, tree, fileId, key.get(), forest.numOfTrees(), trainSubsetFraction);
+                if (weight == 0) {
+                    continue;
+                }
+                int leaf = forest.leaf(tree, row, 0);
+                if (forest.label.get(leaf) != PENDING) {
+                    continue;
+                }
+                node.set(Integer.toString(leaf));
+                weightedRow.set(weight + "\t" + value.toString());
+                context.write(node, weightedRow);
+            }
+        }
+    }
+
+    /**
+     * Reducer class for handing off small nodes.
+     * Each reduce() call grows the subtree of one pending node in memory, and writes it as a side file.
+     */
+    public static class RFHandOffReducer extends Reducer<Text, Text, Text, Text> {
+        // Configuration.
+        Configuration conf;
+
+        // Attributes' type(categorical/continuous) specification.
+        ArrayList<Boolean> typeSpec;
+
+        // The useful choosen attributes.
+        ArrayList<Boolean> chosenAttrs;
+
+        // Data CSV file delimiter.
+        String delimiter;
+
+        // Remaining attributes of each pending node, by node offset.
+        Map<Integer, Set<Integer>> remainingAttributes;
+
+        /**
+         * Overridden setup method to read the pending nodes' remaining attributes.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         */
+        @Override
+        protected void setup(Context context) throws IOException {
+            conf = context.getConfiguration();
+            typeSpec = parseFlags(conf.get("typeSpecification"));
+            chosenAttrs = parseFlags(conf.get("chosenAttributes"));
+            delimiter = conf.get("delimiter");
+            remainingAttributes = readNodeAttributes(conf, "pendingPath");
+        }
+
+        /**
+         * Grow the subtree of one pending node.
+         * @param key   The pending node.
+         * @param values    The node's rows, each as "weight\trow".
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
+            // Attributes used above the node are not used again.
+            Set<Integer> remaining = remainingAttributes.get(Integer.parseInt(key.toString()));
+            ArrayList<Boolean> nodeChosenAttrs = new ArrayList<>();
+            for (int attrIdx = 0; attrIdx < chosenAttrs.size(); attrIdx ++) {
+                nodeChosenAttrs.add(chosenAttrs.get(attrIdx) && remaining.contains(attrIdx));
+            }
+
+            int numOfTrees = conf.getInt("numOfTrees", 1);
+            DecisionTree dt = new DecisionTree(typeSpec, nodeChosenAttrs, delimiter, numOfTrees > 1);
+            dt.attrSubspaceNum = conf.getInt("attrSubspaceNum", 0);
+            dt.random = new Random(conf.getLong("seed", 0) * 31 + key.toString().hashCode());
+
+            CsvTokenizer tokens = new CsvTokenizer(delimiter);
+            int[] weights = new int[16];
+            for (Text val: values) {
+                String s = val.toString();
+                int tab = s.indexOf('\t');
+                tokens.tokenize(s.substring(tab + 1));
+                if (dt.trainData.add(tokens)) {
+                    if (dt.trainData.size > weights.length) {
+                        weights = Arrays.copyOf(weights, weights.length * 2);
+                    }
+                    weights[dt.trainData.size - 1] = Integer.parseInt(s.substring(0, tab));
+                }
+            }
+            if (dt.trainData.size == 0) {
+                return;
+            }
+            dt.weights = Arrays.copyOf(weights, dt.trainData.size);
+            dt.startTraining();
+
+            Path subtreePath = new Path(FileOutputFormat.getWorkOutputPath(context), subtreeFile(key.toString()));
+            dt.compiled.write(subtreePath.getFileSystem(conf), subtreePath);
+        }
+    }
+
+    /**
+     * A utility to parse a 0/1 sequence from configuration.
+     * @param flags The 0/1 sequence.
+     * @return The booleans.
+     */
+    static ArrayList<Boolean> parseFlags(String flags) {
+        ArrayList<Boolean> booleans = new ArrayList<>();
+        for (int i = 0; i < flags.length(); i ++) {
+            booleans.add(flags.charAt(i) == '1');
+        }
+        return booleans;
+    }
+
+    /**
+     * A utility to write some attributes of each node for the next job, one line per node, "node\tattr,attr,...".
+     * @param fs The file system.
+     * @param path The file path.
+     * @param attributes The attributes of each node.
+     * @param offsets The offset of each node in the partial trees.
+     * @throws IOException In case of IOException.
+     */
+    static void writeNodeAttributes(FileSystem fs, Path path, Map<Node, ArrayList<Integer>> attributes,
+                                    Map<Node, Integer> offsets) throws IOException {
+        try (FSDataOutputStream out = fs.create(path, true)) {
+            StringBuilder builder = new StringBuilder();
+            for (Map.Entry<Node, ArrayList<Integer>> entry: attributes.entrySet()) {
+                builder.append(offsets.get(entry.getKey())).append('\t');
+                ArrayList<Integer> nodeAttributes = entry.getValue();
+                for (int i = 0; i < nodeAttributes.size(); i ++) {
+                    builder.append(i > 0 ? "," : "").append(nodeAttributes.get(i));
+                }
+                builder.append('\n');
+            }
+            out.write(builder.toString().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * A utility to read the attributes of each node written by writeNodeAttributes.
+     * @param conf The job configuration.
+     * @param name The configuration name of the file path.
+     * @return The attributes of each node, by node offset.
+     * @throws IOException In case of IOException.
+     */
+    static Map<Integer, Set<Integer>> readNodeAttributes(Configuration conf, String name) throws IOException {
+        Map<Integer, Set<Integer>> attributes = new HashMap<>();
+        Path path = new Path(conf.get(name));
+        FileSystem fs = path.getFileSystem(conf);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(path), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] tokens = line.split("\t", -1);
+                Set<Integer> nodeAttributes = new HashSet<>();
+                if (!tokens[1].isEmpty()) {
+                    for (String attr: tokens[1].split(",")) {
+                        nodeAttributes.add(Integer.parseInt(attr));
+                    }
+                }
+                attributes.put(Integer.parseInt(tokens[0]), nodeAttributes);
+            }
+        }
+        return attributes;
+    }
+
+    /**
+     * A utility to load the partial trees of current job.
+     * @param conf The job configuration.
+     * @return The partial trees.
+     * @throws IOException In case of IOException.
+     */
+    static CompiledForest loadForest(Configuration conf) throws IOException {
+        Path forestPath = new Path(conf.get("forestPath"));
+        return CompiledForest.load(forestPath.getFileSystem(conf), forestPath);
+    }
+
+    /**
+     * A utility to load the bins of continuous attributes.
+     * @param conf The job configuration.
+     * @return The bins.
+     * @throws IOException In case of IOException.
+     */
+    static Binning loadBinning(Configuration conf) throws IOException {
+        Path binningPath = new Path(conf.get("binningPath"));
+        try (FSDataInputStream in = binningPath.getFileSystem(conf).open(binningPath)) {
+            return Binning.read(in);
+        }
+    }
+
+    /**
+     * A utility to name the side file of a subtree.
+     * @param node The pending node.
+     * @return The file name.
+     */
+    static String subtreeFile(String node) {
+        return "subtree-" + node + RFMapReduce.MODEL_FILE_SUFFIX;
+    }
+
+    /**
+     * The weight of a row in a tree's bootstrap sample, a Poisson draw hashed from the row's position, so it's
+     * the same in every job. A single tree uses every row once.
+     * @param seed The seed of the forest.
+     * @param tree The tree index.
+     * @param fileId Identifies the row's file.
+     * @param offset The row's offset in the file.
+     * @param numOfTrees The number of trees.
+     * @param mean The mean of the weights.
+     * @return The weight.
+     */
+    static int weight(long seed, int tree, long fileId, long offset, int numOfTrees, double mean) {
+        if (numOfTrees == 1) {
+            return 1;
+        }
+
+        // SplitMix64 finalizer of the row's position.
+        long z = seed + (tree + 1) * 0x9E3779B97F4A7C15L + fileId * 0xC2B2AE3D27D4EB4FL + offset * 0x165667B19E3779F9L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        z = z ^ (z >>> 31);
+        double u = (z >>> 11) * 0x1.0p-53;
+
+        // Inverse transform of the Poisson distribution.
+        double p = Math.exp(-mean);
+        double cdf = p;
+        int k = 0;
+        while (u > cdf && k < 64) {
+            k ++;
+            p *= mean / k;
+            cdf += p;
+        }
+        return k;
+    }
+
+    /**
+     * A utility to calculate entropy of long counts.
+     * @param counts The count of each label.
+     * @param n The total count.
+     * @return The entropy.
+     */
+    static double entropy(long[] counts, long n) {
+        double entropy = 0;
+        for (long count: counts) {
+            if (count == 0) {
+                continue;
+            }
+            double p = (count * 1.0) / n;
+            entropy -= p * Math.log(p) / Math.log(2);
+        }
+        return entropy;
+    }
+
+    /**
+     * The driver method used to grow the forest.
+     * @param args  [input training data folder] [output folder] [number of trees].
+     * @return Indicate if the jobs are completely successfully.
+     * @throws Exception In case of Exception.
+     */
+    public int LevelWiseDriver(String[] args) throws Exception {
+        this.conf = new Configuration();
+        Path input = new Path(args[0]);
+        Path output = new Path(args[1]);
+        Path work = new Path(output, "_levels");
+        this.numOfTrees = Integer.parseInt(args[2]);
+
+        // Configuration are used to pass in parameters for Mappers and Reducers.
+        this.conf.set("typeSpecification", toFlags(this.typeSpecification));
+        this.conf.set("chosenAttributes", toFlags(this.chosenAttributes));
+        this.conf.set("delimiter", this.delimiter);
+        this.conf.setInt("numOfTrees", this.numOfTrees);
+        this.conf.setLong("seed", this.seed);
+        this.conf.setDouble("trainSubsetFraction", this.trainSubsetFraction);
+        this.conf.setInt("attrSubspaceNum", this.attrSubspaceNum);
+
+        FileSystem fs = output.getFileSystem(this.conf);
+
+        // Bins of continuous attributes, from a sample.
+        this.schema = new Dataset(this.typeSpecification);
+        readSample(fs, input);
+        this.binning = new Binning(this.schema, this.chosenAttributes, this.numOfBins, null);
+        Path binningPath = new Path(work, "binning");
+        try (FSDataOutputStream out = fs.create(binningPath, true)) {
+            this.binning.write(out);
+        }
+        this.conf.set("binningPath", binningPath.toString());
+
+        // Every tree starts with its root in the frontier.
+        this.random = new Random(this.seed);
+        this.roots = new ArrayList<>();
+        this.remainingAttributes = new HashMap<>();
+        this.frontier = new ArrayList<>();
+        this.pending = new ArrayList<>();
+        ArrayList<Integer> attributes = new ArrayList<>();
+        for (int attrIdx = 0; attrIdx < this.typeSpecification.size(); attrIdx ++) {
+            attributes.add(attrIdx);
+        }
+        for (int tree = 0; tree < this.numOfTrees; tree ++) {
+            Node root = new Node(FRONTIER);
+            this.roots.add(root);
+            this.remainingAttributes.put(root, attributes);
+            this.frontier.add(root);
+        }
+
+        // Grow level by level.
+        for (int level = 0; !this.frontier.isEmpty(); level ++) {
+            Path levelPath = new Path(work, "level-" + level);
+            Map<Node, Integer> offsets = writeForest(fs, new Path(levelPath, "forest" + RFMapReduce.MODEL_FILE_SUFFIX));
+            writeCandidates(fs, new Path(levelPath, "candidates"), offsets);
+
+            Path splitsPath = new Path(levelPath, "splits");
+            if (!runLevel(input, splitsPath, level)) {
+                return 1;
+            }
+            Map<Integer, List<SplitWritable>> splits = readSplits(fs, splitsPath);
+
+            List<Node> next = new ArrayList<>();
+            for (Node node: this.frontier) {
+                expand(node, splits.get(offsets.get(node)), next);
+            }
+            this.frontier = next;
+        }
+
+        // Grow small nodes in memory.
+        if (!this.pending.isEmpty() && !handOff(fs, input, new Path(work, "handoff"))) {
+            return 1;
+        }
+
+        CompiledForest.compile(this.roots, this.schema).write(fs, new Path(output, RFMapReduce.FOREST_FILE));
+        fs.delete(work, true);
+
+        System.out.println("Job was successful");
+        return 0;
+    }
+
+    /**
+     * Read a sample of the training data into the schema dataset, the first rows of each file.
+     * @param fs The file system.
+     * @param input The training data file or folder.
+     * @throws IOException In case of IOException.
+     */
+    private void readSample(FileSystem fs, Path input) throws IOException {
+        List<Path> files = new ArrayList<>();
+        for (FileStatus file: fs.listStatus(input)) {
+            String name = file.getPath().getName();
+            if (file.isFile() && !name.startsWith("_") && !name.startsWith(".")) {
+                files.add(file.getPath());
+            }
+        }
+        int rowsPerFile = Math.max(1, this.sampleSize / Math.max(1, files.size()));
+        CsvTokenizer tokens = new CsvTokenizer(this.delimiter);
+        for (Path file: files) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(fs.open(file), StandardCharsets.UTF_8))) {
+                String line;
+                int rows = 0;
+                while (rows < rowsPerFile && (line = reader.readLine()) != null) {
+                    tokens.tokenize(line);
+                    if (this.schema.add(tokens)) {
+                        rows ++;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the partial trees for the next job, and number their nodes.
+     * @param fs The file system.
+     * @param path The forest file path.
+     * @return The offset of each node in the file.
+     * @throws IOException In case of IOException.
+     */
+    private Map<Node, Integer> writeForest(FileSystem fs, Path path) throws IOException {
+        CompiledForest.compile(this.roots, this.schema).write(fs, path);
+        this.conf.set("forestPath", path.toString());
+
+        // Nodes are laid out in preorder, tree after tree.
+        Map<Node, Integer> offsets = new IdentityHashMap<>();
+        Deque<Node> stack = new ArrayDeque<>();
+        int offset = 0;
+        for (Node root: this.roots) {
+            stack.push(root);
+            while (!stack.isEmpty()) {
+                Node node = stack.pop();
+                offsets.put(node, offset ++);
+                if (node.left != null) {
+                    stack.push(node.right);
+                    stack.push(node.left);
+                }
+            }
+        }
+        return offsets;
+    }
+
+    /**
+     * Pick the candidate attributes of each frontier node, a random subspace in Random Forest, and write them for
+     * the level's mappers, so only they are counted and shuffled.
+     * @param fs The file system.
+     * @param path The candidates file path.
+     * @param offsets The offset of each node in the partial trees.
+     * @throws IOException In case of IOException.
+     */
+    private void writeCandidates(FileSystem fs, Path path, Map<Node, Integer> offsets) throws IOException {
+        this.candidateAttributes = new IdentityHashMap<>();
+        for (Node node: this.frontier) {
+            ArrayList<Integer> candidates = new ArrayList<>();
+            for (Integer attrIdx: this.remainingAttributes.get(node)) {
+                if (this.chosenAttributes.get(attrIdx)) {
+                    candidates.add(attrIdx);
+                }
+            }
+            if (this.numOfTrees > 1 && candidates.size() > this.attrSubspaceNum) {
+                for (int i = 0; i < this.attrSubspaceNum; i ++) {
+                    Collections.swap(candidates, i, i + this.random.nextInt(candidates.size() - i));
+                }
+                candidates = new ArrayList<>(candidates.subList(0, this.attrSubspaceNum));
+            }
+            this.candidateAttributes.put(node, candidates);
+        }
+        writeNodeAttributes(fs, path, this.candidateAttributes, offsets);
+        this.conf.set("candidatesPath", path.toString());
+    }
+
+    /**
+     * Run the job of one level.
+     * @param input The training data.
+     * @param output The output of the splits.
+     * @param level The level.
+     * @return Indicate if the job is completely successfully.
+     * @throws Exception In case of Exception.
+     */
+    private boolean runLevel(Path input, Path output, int level) throws Exception {
+        this.job = Job.getInstance(this.conf, "RandomForestLevel" + level);
+        this.job.setJarByClass(RFLevelWise.class);
+        this.job.setMapperClass(RFLevelWiseMapper.class);
+        this.job.setReducerClass(RFLevelWiseReducer.class);
+
+        FileInputFormat.addInputPath(this.job, input);
+        this.job.setInputFormatClass(TextInputFormat.class);
+        FileOutputFormat.setOutputPath(this.job, output);
+        this.job.setOutputFormatClass(SequenceFileOutputFormat.class);
+
+        this.job.setMapOutputKeyClass(Text.class);
+        this.job.setMapOutputValueClass(StatisticsWritable.class);
+        this.job.setOutputKeyClass(Text.class);
+        this.job.setOutputValueClass(SplitWritable.class);
+
+        return this.job.waitForCompletion(true);
+    }
+
+    /**
+     * Read the best split of every (node, attribute) found by a level's reducers.
+     * @param fs The file system.
+     * @param path The output of the splits.
+     * @return The splits of each node, by node offset.
+     * @throws IOException In case of IOException.
+     */
+    private Map<Integer, List<SplitWritable>> readSplits(FileSystem fs, Path path) throws IOException {
+        Map<Integer, List<SplitWritable>> splits = new HashMap<>();
+        FileStatus[] parts = fs.globStatus(new Path(path, "part-*"));
+        for (FileStatus part: parts) {
+            try (SequenceFile.Reader reader = new SequenceFile.Reader(this.conf, SequenceFile.Reader.file(part.getPath()))) {
+                Text node = new Text();
+                SplitWritable split = new SplitWritable();
+                while (reader.next(node, split)) {
+                    int offset = Integer.parseInt(node.toString());
+                    if (!splits.containsKey(offset)) {
+                        splits.put(offset, new ArrayList<SplitWritable>());
+                    }
+                    splits.get(offset).add(split);
+                    split = new SplitWritable();
+                }
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * Turn a frontier node into a leaf or split it with its best split.
+     * @param node The frontier node.
+     * @param splits The best split of each candidate attribute at the node, NULL if no row reached the node.
+     * @param next The next level's frontier, the node's children may be added to it.
+     */
+    private void expand(Node node, List<SplitWritable> splits, List<Node> next) {
+        ArrayList<Integer> remaining = this.remainingAttributes.remove(node);
+        ArrayList<Integer> candidates = this.candidateAttributes.get(node);
+        if (splits == null || splits.isEmpty()) {
+            node.label = node.majorityLabel();
+            return;
+        }
+
+        // Every split carries the node's label counts.
+        SplitWritable any = splits.get(0);
+        node.labelsCount = toLabelsCount(any.labels, any.total, null);
+
+        // The lowest entropy wins, the smaller attribute index wins a tie.
+        SplitWritable best = null;
+        for (SplitWritable split: splits) {
+            if (!candidates.contains(split.attribute) || split.entropy == Double.MAX_VALUE) {
+                continue;
+            }
+            if (best == null || split.entropy < best.entropy
+                    || (split.entropy == best.entropy && split.attribute < best.attribute)) {
+                best = split;
+            }
+        }
+        if (best == null) {
+            node.label = node.majorityLabel();
+            return;
+        }
+
+        node.bestAttribute = best.attribute;
+        if (this.typeSpecification.get(best.attribute)) {
+            node.category = this.schema.categoryDictionaries[best.attribute].encode(best.bucket.toString());
+        } else {
+            // Rows missing the attribute are counted in the bin after all others and go right. The last bin's
+            // upper boundary separates them from the others.
+            double[] cuts = this.binning.cuts[best.attribute];
+            int bin = Integer.parseInt(best.bucket.toString());
+            node.threshold = bin < cuts.length ? cuts[bin] : Double.POSITIVE_INFINITY;
+        }
+
+        ArrayList<Integer> childRemaining = new ArrayList<>(remaining);
+        childRemaining.remove(Integer.valueOf(best.attribute));
+        node.left = child(node, toLabelsCount(best.labels, best.left, null), childRemaining, next);
+        node.right = child(node, toLabelsCount(best.labels, best.total, best.left), childRemaining, next);
+    }
+
+    /**
+     * Create a child of a split node.
+     * @param parent The split node.
+     * @param labelsCount The child's label counts.
+     * @param remaining The child's remaining attributes.
+     * @param next The next level's frontier, the child may be added to it.
+     * @return The child.
+     */
+    private Node child(Node parent, int[] labelsCount, ArrayList<Integer> remaining, List<Node> next) {
+        long n = 0;
+        int numOfLabels = 0;
+        for (int count: labelsCount) {
+            n += count;
+            numOfLabels += count > 0 ? 1 : 0;
+        }
+        if (n == 0) {
+            return new Node(parent.majorityLabel());
+        }
+
+        Node child = new Node(FRONTIER);
+        child.labelsCount = labelsCount;
+        if (numOfLabels == 1 || remaining.isEmpty()) {
+            child.label = child.majorityLabel();
+        } else if (n <= this.inMemoryThreshold) {
+            child.label = PENDING;
+            this.remainingAttributes.put(child, remaining);
+            this.pending.add(child);
+        } else {
+            this.remainingAttributes.put(child, remaining);
+            next.add(child);
+        }
+        return child;
+    }
+
+    /**
+     * A utility to turn label counts from a split into a dense count array of the forest's label ids.
+     * @param labels The labels.
+     * @param counts The count of each label.
+     * @param minus Counts subtracted from counts, NULL if none.
+     * @return The label counts.
+     */
+    private int[] toLabelsCount(Text[] labels, long[] counts, long[] minus) {
+        int[] ids = new int[labels.length];
+        for (int i = 0; i < labels.length; i ++) {
+            ids[i] = this.schema.labelDictionary.encode(labels[i].toString());
+        }
+        int[] labelsCount = new int[this.schema.labelDictionary.size()];
+        for (int i = 0; i < labels.length; i ++) {
+            labelsCount[ids[i]] += (int) (counts[i] - (minus == null ? 0 : minus[i]));
+        }
+        return labelsCount;
+    }
+
+    /**
+     * Grow the pending nodes in memory in one job, and graft their subtrees.
+     * @param fs The file system.
+     * @param input The training data.
+     * @param output The output of the job.
+     * @return Indicate if the job is completely successfully.
+     * @throws Exception In case of Exception.
+     */
+    private boolean handOff(FileSystem fs, Path input, Path output) throws Exception {
+        Map<Node, Integer> offsets = writeForest(fs, new Path(output.getParent(), "pending" + RFMapReduce.MODEL_FILE_SUFFIX));
+
+        // Remaining attributes of each pending node.
+        Map<Node, ArrayList<Integer>> remaining = new IdentityHashMap<>();
+        for (Node node: this.pending) {
+            remaining.put(node, this.remainingAttributes.get(node));
+        }
+        Path pendingPath = new Path(output.getParent(), "pending");
+        writeNodeAttributes(fs, pendingPath, remaining, offsets);
+        this.conf.set("pendingPath", pendingPath.toString());
+
+        this.job = Job.getInstance(this.conf, "RandomForestHandOff");
+        this.job.setJarByClass(RFLevelWise.class);
+        this.job.setMapperClass(RFHandOffMapper.class);
+        this.job.setReducerClass(RFHandOffReducer.class);
+
+        FileInputFormat.addInputPath(this.job, input);
+        this.job.setInputFormatClass(TextInputFormat.class);
+        FileOutputFormat.setOutputPath(this.job, output);
+        this.job.setOutputFormatClass(TextOutputFormat.class);
+
+        this.job.setMapOutputKeyClass(Text.class);
+        this.job.setMapOutputValueClass(Text.class);
+        this.job.setOutputKeyClass(Text.class);
+        this.job.setOutputValueClass(Text.class);
+
+        if (!this.job.waitForCompletion(true)) {
+            return false;
+        }
+
+        for (Node node: this.pending) {
+            Path subtreePath = new Path(output, subtreeFile(offsets.get(node).toString()));
+            if (fs.exists(subtreePath)) {
+                CompiledForest subtree = CompiledForest.load(fs, subtreePath);
+                graft(node, toNode(subtree, subtree.roots[0]));
+            } else {
+                node.label = node.majorityLabel();
+            }
+            this.remainingAttributes.remove(node);
+        }
+        this.pending.clear();
+        return true;
+    }
+
+    /**
+     * Turn a compiled subtree back into nodes, with the forest's label and category ids.
+     * @param subtree The compiled subtree, with its own dictionaries.
+     * @param offset The offset of the subtree's node.
+     * @return The node.
+     */
+    private Node toNode(CompiledForest subtree, int offset) {
+        int attrIdx = subtree.feature.get(offset);
+        if (attrIdx < 0) {
+            return new Node(this.schema.labelDictionary.encode(subtree.labelDictionary().decode(subtree.label.get(offset))));
+        }
+        Node node = new Node(-1);
+        node.bestAttribute = attrIdx;
+        if (subtree.categorical[attrIdx]) {
+            String category = subtree.categoryDictionary(attrIdx).decode((int) subtree.split.get(offset));
+            node.category = this.schema.categoryDictionaries[attrIdx].encode(category);
+        } else {
+            node.threshold = subtree.split.get(offset);
+            node.missingLeft = subtree.missingLeft.get(offset) != 0;
+        }
+        node.left = toNode(subtree, offset + 1);
+        node.right = toNode(subtree, subtree.right.get(offset));
+        return node;
+    }
+
+    /**
+     * Replace a pending node with a subtree's root, keeping the node in its parent.
+     * @param node The pending node.
+     * @param root The subtree's root.
+     */
+    private void graft(Node node, Node root) {
+        node.bestAttribute = root.bestAttribute;
+        node.threshold = root.threshold;
+        node.missingLeft = root.missingLeft;
+        node.category = root.category;
+        node.label = root.label;
+        node.left = root.left;
+        node.right = root.right;
+    }
+
+    /**
+     * A utility to write booleans as a 0/1 sequence for configuration.
+     * @param booleans The booleans.
+     * @return The 0/1 sequence.
+     */
+    static String toFlags(List<Boolean> booleans) {
+        StringBuilder flags = new StringBuilder();
+        for (Boolean b: booleans) {
+            flags.append(b ? '1' : '0');
+        }
+        return flags.toString();
+    }
+
+    /**
+     * Constructor for RFLevelWise.
+     * @param typeSpecification Attributes' type(categorical/continuous) specification.
+     * @param chosenAttributes A boolean array indicates the attributes that user choose to use/ignore.
+     * @param delimiter Data CSV file delimiter.
+     */
+    public RFLevelWise(ArrayList<Boolean> typeSpecification, ArrayList<Boolean> chosenAttributes, String delimiter) {
+        this.typeSpecification = typeSpecification;
+        this.chosenAttributes = chosenAttributes;
+        this.delimiter = delimiter;
+
+        this.trainSubsetFraction = 2.0 / 3.0;
+        this.attrSubspaceNum = (int) Math.sqrt(typeSpecification.size());
+        this.numOfBins = 64;
+        this.inMemoryThreshold = 100000;
+        this.sampleSize = 100000;
+        this.seed = System.nanoTime();
+    }
+}
@@ -1,18 +1,29 @@
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.MRJobConfig;
 import org.apache.hadoop.mapreduce.Mapper;
 import org.apache.hadoop.mapreduce.Reducer;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
 import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+import org.apache.hadoop.util.LineReader;
 
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.net.URI;
 import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by d_d on 3/11/17.
@@ -24,21 +35,41 @@ import java.util.*;
  *
  * This structure is as follows:
  * ===============================================================================================================
- * | 1. Read train data from a CSV file.
- * | 2. Build n InputSplits for n trees, n is a command line argument.
- * |    1). Use customized InputFormat.getSplits() to create n InputSplits. So the framework would call n mappers.
- * |    2). Use customized RecordReader.nextKeyValue() to create 2/3 subset of the training data with replacement.
- * |    3). When Mapper.run() is calling nextKeyValue(), this method directly return the 2/3 data.
+ * | 1. Read train data from CSV files.
+ * | 2. Build n / k InputSplits for n trees, n is a command line argument, k is trees per split(1 as default).
+ * |    1). Use customized InputFormat.getSplits() to create n / k InputSplits. So the framework would call n / k
+ * |        mappers.
+ * |    2). Use customized RecordReader.nextKeyValue() to stream the training data line by line, every file of the
+ * |        input folder, read ahead in parallel.
+ * |    3). When Mapper.run() is calling nextKeyValue(), map() parses each line into the mapper's dataset.
  * | 3. Each InputSplit would assign to a mappper.
- * | 4. After receiving data, each mapper start to build tree and produce prediction for test dataset.
- * |    (Each mapper is only going to receive one key/value pair from RecordReader.)
- * | 5. Pass the test data and label as key and value to reducer.
+ * | 4. After receiving data, in cleanup() each mapper draws a bootstrap sample of 2/3 of it for each of its k
+ * |    trees, grows the trees concurrently and produce prediction for test dataset. The test data is streamed in
+ * |    chunks of TEST_CHUNK_SIZE rows, read on a background thread while the previous chunk is scored.
+ * | 5. Pass the test data's byte offset and the vote as key and value to reducer.
  * | 6. Reducer counts the majority label according to key.
- * | 7. Write results to output file.
+ * | 7. Write the test data's line and the majority label to output file. Keys arrive in ascending order, so the
+ * |    reducer reads the lines by scanning the test file forward once, it never holds the file.
+ * | 8. Each mapper also writes its tree as a side file of the job output, after the job the driver assembles them
+ * |    into one forest model file(FOREST_FILE in the output directory), which is loaded by CompiledForest.load().
  * ===============================================================================================================
  * TODO: Support more results analysis, ex: Confusion Matrix, etc.
  */
 public class RFMapReduce {
+    // Name of the assembled forest model file in the output directory.
+    public static final String FOREST_FILE = "forest.rfm";
+
+    // Prefix of the tree model files written by mappers, they are removed once the forest is assembled.
+    static final String TREE_FILE_PREFIX = "tree";
+
+    // Suffix of model files.
+    static final String MODEL_FILE_SUFFIX = ".rfm";
+
+    // The number of test rows a mapper scores at a time.
+    static final int TEST_CHUNK_SIZE = 4096;
+
+    // The number of test chunks a mapper reads ahead while scoring.
+    static final int TEST_CHUNKS_AHEAD = 2;
 
     // Configuration.
     public Configuration conf;
@@ -64,11 +95,32 @@ public class RFMapReduce {
     // Indicates the Random subspace in Random Forest.
     public int attrSubspaceNum;
 
+    // Use histogram splitting for continuous attributes instead of exact splitting.
+    public boolean histogramSplit;
+
+    // The maximum number of bins per continuous attribute for histogram splitting.
+    public int numOfBins;
+
+    // Also output the fraction of votes of each label.
+    public boolean voteFractions;
+
+    // The number of trees grown by each mapper.
+    public int treesPerSplit;
+
+    // The maximum number of mappers placed on one host, 0 for no limit.
+    public int maxTasksPerHost;
+
+    // The number of threads each mapper reads training files with.
+    public int readThreads;
+
+    // Keep the mappers' training indexes outside the heap.
+    public boolean offHeap;
+
     /**
      * Mapper class for random forest.
-     * Each RFMapper Instance is for one decision tree.
+     * Each RFMapper Instance is for treesPerSplit decision trees, grown concurrently on one parsed dataset.
      */
-    public static class RFMapper extends Mapper<IntWritable, Text, Text, Text> {
+    public static class RFMapper extends Mapper<LongWritable, Text, LongWritable, VoteWritable> {
         // Configuration.
         Configuration conf;
 
@@ -81,17 +133,35 @@ public class RFMapReduce {
         // Indicates the Random subspace in Random Forest.
         int attrSubspaceNum;
 
+        // Use histogram splitting for continuous attributes instead of exact splitting.
+        boolean histogramSplit;
+
+        // The maximum number of bins per continuous attribute for histogram splitting.
+        int numOfBins;
+
         // Store attributes' name if the data has a header.
         public ArrayList<String> attributesName;
 
         // Data CSV file delimiter.
         String delimiter;
 
-        // Training data.
-        Entries train;
+        // The random factor for training subset selection.
+        double trainSubsetFraction;
+
+        // The number of trees grown by each mapper.
+        int treesPerSplit;
 
-        // DecisionTree instance for this mapper.
-        DecisionTree dt;
+        // The number of trees of the whole forest.
+        int numOfTrees;
+
+        // RandomForest instance for this mapper, its trees share one parsed training dataset.
+        RandomForest rf;
+
+        // Local path of the test file.
+        String testPath;
+
+        // Tokenizer of data lines, reused for every line.
+        CsvTokenizer tokens;
 
         /**
          * Overridden setup method to setup and initialize decision tree.
@@ -117,139 +187,365 @@ public class RFMapReduce {
             }
 
             delimiter = conf.get("delimiter");
+            tokens = new CsvTokenizer(delimiter);
             attrSubspaceNum = Integer.parseInt(conf.get("attrSubspaceNum"));
+            histogramSplit = conf.getBoolean("histogramSplit", false);
+            numOfBins = conf.getInt("numOfBins", 64);
 
             // Process header if there is, from Configuration.
             String header = conf.get("header");
             if (!header.equals("null")) {
                 attributesName = new ArrayList<>();
-                attributesName.addAll(Arrays.asList(header.split(delimiter)));
+                int n = tokens.tokenize(header);
+                for (int i = 0; i < n; i ++) {
+                    attributesName.add(tokens.string(i));
+                }
             } else {
                 attributesName = null;
             }
 
-            train = new Entries();
+            trainSubsetFraction = Double.parseDouble(conf.get("trainSubsetFraction"));
+            treesPerSplit = conf.getInt("treesPerSplit", 1);
+            numOfTrees = Integer.parseInt(conf.get("numOfTrees"));
 
             // Initialization.
-            dt = new DecisionTree(typeSpec, chosenAttrs, delimiter, true);
-            dt.attrSubspaceNum = attrSubspaceNum;
-
-            // Load testing data directly into DecisionTree Instance.
+            rf = new RandomForest(typeSpec, chosenAttrs, delimiter);
+            rf.trainSubsetFraction = trainSubsetFraction;
+            rf.attrSubspaceNum = attrSubspaceNum;
+            rf.histogramSplit = histogramSplit;
+            rf.numOfBins = numOfBins;
+            rf.attributesName = attributesName;
+            rf.offHeap = conf.getBoolean("offHeap", false);
+
+            // Trees are grown concurrently on the mapper's vcores.
+            rf.numOfThreads = conf.getInt(MRJobConfig.MAP_CPU_VCORES, MRJobConfig.DEFAULT_MAP_CPU_VCORES);
+
+            // The test data is only read after training, chunk by chunk.
             URI[] localFiles = context.getCacheFiles();
-            dt.loadData(false, localFiles[0].getPath(), false);
+            testPath = localFiles[0].getPath();
+
+            // Dataset files converted by RFConversion are loaded directly, only text files are read by RFRecordReader.
+            for (Path path: ((CombineFileSplit) context.getInputSplit()).getPaths()) {
+                if (DatasetFile.isDatasetFile(path)) {
+                    DatasetFile.load(path.getFileSystem(conf), path, rf.trainData);
+                }
+            }
         }
 
         /**
-         * After being called, using prepared data to grow the tree.
-         * @param key   Just to satisfy the framework, no actual use.
-         * @param value The training data generated from nextKeyValue() in RFRecordReader.
+         * Parse one line of the training data into the dataset.
+         * @param key   The offset of the line, no actual use.
+         * @param value The line generated from nextKeyValue() in RFRecordReader.
+         * @param context   The job context.
+         */
+        @Override
+        public void map(LongWritable key, Text value, Context context) {
+            // Rows without one value per attribute plus the label are skipped by the dataset.
+            tokens.tokenize(value);
+            rf.trainData.add(tokens);
+        }
+
+        /**
+         * After all lines are parsed, using prepared data to grow the trees.
          * @param context   The job context.
          * @throws IOException In case of IOException.
          * @throws InterruptedException In case of InterruptedException.
          */
         @Override
-        public void map(IntWritable key, Text value, Context context) throws IOException, InterruptedException {
-            // The value comes from nextKeyValue is the whole training dataset which is a big Text stream seperated
-            // by line breaker("\n") as each entry.
-            String[] rawLines = (value.toString()).split("\n");
-            List<String[]> rawEntries = new ArrayList<>();
-
-            for (String s: rawLines) {
-                rawEntries.add(s.split(delimiter));
-            }
+        protected void cleanup(Context context) throws IOException, InterruptedException {
 
-            for (int j = 0; j < rawEntries.size(); j ++) {
-                String[] s = rawEntries.get(j);
-                int i;
+            // All splits grow treesPerSplit trees except the last one, which grows the rest.
+            int splitIdx = context.getTaskAttemptID().getTaskID().getId();
+            rf.initialize(Math.min(treesPerSplit, numOfTrees - splitIdx * treesPerSplit));
 
-                // Just being lazy, should deal with this edge case in nextKeyValue() in RFRecordReader.
-                if (s.length != (typeSpec.size() + 1)) {
-                    continue;
-                }
+            // Each tree draws its own training subset from the parsed data. Trees are printed as they're trained.
+            rf.startTraining();
+
+            // Persist the trees as a side file of the task, it's promoted to the output directory with the task's
+            // output, so failed or speculative attempts leave nothing behind.
+            Path treePath = new Path(FileOutputFormat.getWorkOutputPath(context),
+                    FileOutputFormat.getUniqueFile(context, TREE_FILE_PREFIX, MODEL_FILE_SUFFIX));
+            rf.compiled.write(treePath.getFileSystem(conf), treePath);
 
-                Entry newEntry = new Entry();
-                for (i = 0; i < s.length - 1; i ++) {
-                    newEntry.attributes.add(new CellData(s[i], typeSpec.get(i)));
+            scoreTestData(context);
+        }
+
+        /**
+         * Score the test data with the mapper's trees, one chunk at a time. A background thread reads and parses
+         * the next chunks while the current one is scored, only TEST_CHUNKS_AHEAD + 1 chunks exist at any time,
+         * so the mapper's memory doesn't grow with the test data.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        private void scoreTestData(Context context) throws IOException, InterruptedException {
+            // Labels are decoded once, votes are passed as a tally of the mapper's trees.
+            Text[] labels = new Text[rf.trainData.labelDictionary.size()];
+            for (int i = 0; i < labels.length; i ++) {
+                labels[i] = new Text(rf.trainData.labelDictionary.decode(i));
+            }
+            int[] votes = new int[labels.length];
+
+            // Chunks go around between the reading thread(free) and this thread(full).
+            BlockingQueue<TestChunk> free = new ArrayBlockingQueue<>(TEST_CHUNKS_AHEAD + 1);
+            BlockingQueue<TestChunk> full = new ArrayBlockingQueue<>(TEST_CHUNKS_AHEAD + 1);
+            for (int i = 0; i < TEST_CHUNKS_AHEAD + 1; i ++) {
+                free.add(new TestChunk(new Dataset(rf.trainData)));
+            }
+            ExecutorService reader = Executors.newSingleThreadExecutor();
+            reader.submit(() -> readTestData(free, full));
+            reader.shutdown();
+
+            // Key and value are reused for every row.
+            LongWritable offset = new LongWritable();
+            VoteWritable vote = new VoteWritable();
+            try {
+                while (true) {
+                    TestChunk chunk = full.take();
+                    if (chunk.error instanceof IOException) {
+                        throw (IOException) chunk.error;
+                    } else if (chunk.error != null) {
+                        throw new IOException("Reading the test data failed.", chunk.error);
+                    }
+                    for (int row = 0; row < chunk.data.size; row ++) {
+                        rf.compiled.vote(chunk.data, row, votes);
+                        vote.clear();
+                        for (int i = 0; i < votes.length; i ++) {
+                            if (votes[i] > 0) {
+                                vote.add(labels[i], votes[i]);
+                            }
+                        }
+                        offset.set(chunk.offsets[row]);
+                        context.write(offset, vote);
+                    }
+                    if (chunk.end) {
+                        break;
+                    }
+                    free.put(chunk);
                 }
+            } finally {
+                reader.shutdownNow();
+            }
+        }
 
-                newEntry.label = s[i];
-                train.entries.add(newEntry);
+        /**
+         * Read the test file into chunks, run by the reading thread. Rows are identified by byte offset.
+         * Categories are only looked up in the training data's dictionaries, which are no longer changed, so
+         * they can be shared with the scoring thread.
+         * @param free The chunks to fill.
+         * @param full The filled chunks, the last one is marked as the end. It's always put, carrying the error if
+         *             reading fails, so the scoring thread never waits for it forever.
+         */
+        private void readTestData(BlockingQueue<TestChunk> free, BlockingQueue<TestChunk> full) {
+            try {
+                TestChunk chunk = free.take();
+                try (LineReader lineReader = new LineReader(new FileInputStream(testPath))) {
+                    chunk.clear();
+                    CsvTokenizer testTokens = new CsvTokenizer(delimiter);
+                    Text line = new Text();
+                    long offset = 0;
+                    int length;
+                    while ((length = lineReader.readLine(line)) > 0) {
+                        // Rows without one value per attribute plus the label are skipped.
+                        if (testTokens.tokenize(line) == typeSpec.size() + 1 && chunk.data.addAttributes(testTokens)) {
+                            chunk.offsets[chunk.data.size - 1] = offset;
+                            if (chunk.data.size == TEST_CHUNK_SIZE) {
+                                full.put(chunk);
+                                chunk = free.take();
+                                chunk.clear();
+                            }
+                        }
+                        offset += length;
+                    }
+                } catch (InterruptedException e) {
+                    throw e;
+                } catch (Throwable e) {
+                    // Any error ends the test data, e.g. running out of memory while filling a chunk.
+                    chunk.error = e;
+                }
+                chunk.end = true;
+                full.put(chunk);
+            } catch (InterruptedException e) {
+                // Scoring has stopped.
+                Thread.currentThread().interrupt();
             }
+        }
+
+    }
 
-            dt.trainData = train;
-            dt.attributesName = attributesName;
+    /**
+     * Rows of the test data scored at a time by RFMapper.
+     */
+    private static class TestChunk {
+        // The rows, sharing the training data's dictionaries.
+        Dataset data;
 
-            dt.startTraining();
+        // Byte offset in the test file of each row.
+        long[] offsets = new long[TEST_CHUNK_SIZE];
 
-            // Comment this line to hide tree structure.
-            dt.preorderTraversePrint(dt.start, dt.root, -1, false, true);
+        // Indicate if the chunk ends the test data.
+        boolean end;
 
-            for (Entry e: dt.testData.entries) {
-                context.write(new Text(e.toString(delimiter)), new Text(dt.startTesting(e)));
-            }
+        // The error ending the test data, NULL if the test data is read completely.
+        Throwable error;
+
+        /**
+         * Constructor for TestChunk.
+         * @param data An empty dataset for the rows.
+         */
+        TestChunk(Dataset data) {
+            this.data = data;
         }
 
+        /**
+         * Empty the chunk for reuse.
+         */
+        void clear() {
+            this.data.clear();
+            this.end = false;
+            this.error = null;
+        }
     }
 
     /**
      * Reducer class for random forest.
      * Each reducer is for one entry of test data.
      */
-    public static class RFReducer extends Reducer<Text, Text, Text, Text> {
+    public static class RFReducer extends Reducer<LongWritable, VoteWritable, Text, Text> {
         // Configuration.
         Configuration conf;
 
-        // Predicted labels hash map to count the majority label.
-        Map<Text, Integer> predictedLabels;
+        // The test file, read forward to join the test data back by byte offset.
+        LineReader testLines;
 
-        /**
-         * A utility that facilitates the counting process in a hash map for certain key.
-         * Same as in python Collections.Counter().
-         * @param hashMap The hash map that needs to be updated.
-         * @param key The key that needs to be updated.
-         * @return The updated hash map.
-         */
-        private Map<Text, Integer> Counter(Map<Text, Integer> hashMap, Text key) {
-            Map<Text, Integer> temp = new HashMap<>(hashMap);
-            if (temp.containsKey(key)) {
-                int count = temp.get(key);
-                temp.put(key, ++ count);
-            } else {
-                temp.put(key, 1);
-            }
-            return temp;
-        }
+        // Byte offset of the next line of the test file.
+        long position;
+
+        // Also output the fraction of votes of each label.
+        boolean voteFractions;
+
+        // Votes of current key, reused for every key.
+        VoteWritable votes;
+
+        // Output key and value, reused for every key.
+        Text row;
+        Text prediction;
+
+        // Builds the output value when vote fractions are written.
+        StringBuilder builder;
 
         /**
-         * Overridden method to initialize predictedLabels.
+         * Overridden method to initialize the reusable tally and open the test file.
          * @param context The job context.
+         * @throws IOException In case of IOException.
          */
         @Override
-        protected void setup(Context context) {
+        protected void setup(Context context) throws IOException {
             conf = context.getConfiguration();
-            predictedLabels = new HashMap<>();
+            voteFractions = conf.getBoolean("voteFractions", false);
+            votes = new VoteWritable();
+            row = new Text();
+            prediction = new Text();
+            builder = new StringBuilder();
+            testLines = new LineReader(new FileInputStream(context.getCacheFiles()[0].getPath()));
+            position = 0;
         }
 
         /**
          * Overridden method to collect all labels from the n trees(Mappers)
          * and write the majority one to the output file.
-         * @param key   The test data entry.
-         * @param values    The predicted labels from n trees(Mappers).
+         * If vote fractions are enabled, the value is followed by a tab and "label:fraction" of each voted label,
+         * separated by ",".
+         * @param key   The test data entry's byte offset.
+         * @param values    The votes from n trees(Mappers), possibly pre-aggregated by RFCombiner.
          * @param context   The job context.
          * @throws IOException In case of IOException.
          * @throws InterruptedException In case of InterruptedException.
          */
         @Override
-        public void reduce(Text key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
-            // Updating the majority labels from values.
-            for (Text val: values) {
-                predictedLabels = Counter(predictedLabels, val);
+        public void reduce(LongWritable key, Iterable<VoteWritable> values, Context context) throws IOException, InterruptedException {
+            // Votes are counted from zero for every key.
+            votes.clear();
+            for (VoteWritable val: values) {
+                votes.add(val);
             }
 
             // Get the final majority label.
-            Text finalLabel = Collections.max(predictedLabels.entrySet(), Map.Entry.comparingByValue()).getKey();
+            Text majority = votes.getLabel(votes.majority());
+
+            if (voteFractions) {
+                double total = votes.total();
+                builder.setLength(0);
+                builder.append(majority).append('\t');
+                for (int i = 0; i < votes.size(); i ++) {
+                    if (i > 0) {
+                        builder.append(',');
+                    }
+                    builder.append(votes.getLabel(i)).append(':').append(votes.getCount(i) / total);
+                }
+                prediction.set(builder.toString());
+            } else {
+                prediction.set(majority);
+            }
+
+            readRow(key.get());
+            context.write(row, prediction);
+        }
+
+        /**
+         * Read the test data entry at an offset into row. Keys are sorted, so the offsets only grow and the test
+         * file is scanned forward, skipping the lines in between.
+         * @param offset The entry's byte offset.
+         * @throws IOException In case of IOException, or if no line of the test file starts at the offset.
+         */
+        private void readRow(long offset) throws IOException {
+            while (position < offset) {
+                int length = testLines.readLine(row);
+                if (length == 0) {
+                    break;
+                }
+                position += length;
+            }
+            if (position != offset) {
+                throw new IOException("No line of the test file starts at offset " + offset + ".");
+            }
+            position += testLines.readLine(row);
+        }
 
-            context.write(key, finalLabel);
+        /**
+         * Overridden method to close the test file.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         */
+        @Override
+        protected void cleanup(Context context) throws IOException {
+            testLines.close();
+        }
+    }
+
+    /**
+     * Combiner class for random forest.
+     * It merges the votes of all trees of a mapper for each test row into one tally, so fewer votes are shuffled.
+     */
+    public static class RFCombiner extends Reducer<LongWritable, VoteWritable, LongWritable, VoteWritable> {
+        // Votes of current key, reused for every key.
+        VoteWritable votes = new VoteWritable();
+
+        /**
+         * Overridden method to merge the votes of a test row.
+         * @param key   The test data entry's byte offset.
+         * @param values    The votes.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        public void reduce(LongWritable key, Iterable<VoteWritable> values, Context context) throws IOException, InterruptedException {
+            votes.clear();
+            for (VoteWritable val: values) {
+                votes.add(val);
+            }
+            context.write(key, votes);
         }
     }
 
@@ -261,6 +557,46 @@ public class RFMapReduce {
         this.trainSubsetFraction = trainSubsetFraction;
     }
 
+    /**
+     * Used to switch continuous attributes to histogram splitting, instead of the default exact splitting.
+     * @param numOfBins The maximum number of bins per continuous attribute, usually 32 to 256.
+     */
+    public void setHistogramSplit(int numOfBins) {
+        this.histogramSplit = true;
+        this.numOfBins = numOfBins;
+    }
+
+    /**
+     * Used to grow several trees in each mapper, they share the mapper's parsed training data.
+     * @param treesPerSplit The number of trees per mapper, usually up to the mapper's vcores or a few times more.
+     */
+    public void setTreesPerSplit(int treesPerSplit) {
+        this.treesPerSplit = treesPerSplit;
+    }
+
+    /**
+     * Used to limit the mappers placed on one host, mappers over the limit have no preferred host.
+     * @param maxTasksPerHost The maximum number of mappers per host, usually the host's containers.
+     */
+    public void setMaxTasksPerHost(int maxTasksPerHost) {
+        this.maxTasksPerHost = maxTasksPerHost;
+    }
+
+    /**
+     * Used to keep the mappers' training indexes in direct buffers outside the heap. The mappers' heap then only
+     * holds the parsed data and the trees, the direct memory is limited by -XX:MaxDirectMemorySize of the map tasks.
+     */
+    public void setOffHeap() {
+        this.offHeap = true;
+    }
+
+    /**
+     * Used to also output the fraction of votes of each label, after the majority label.
+     */
+    public void setVoteFractions() {
+        this.voteFractions = true;
+    }
+
     /**
      * The driver method used to start MapReduce job.
      * @param args  The command line arguments.
@@ -278,10 +614,18 @@ public class RFMapReduce {
         this.conf.set("chosenAttributes", chosenAttributes);
         this.conf.set("attrSubspaceNum", "" + attrSubspaceNum);
         this.conf.set("header", header);
+        this.conf.setBoolean("histogramSplit", histogramSplit);
+        this.conf.setInt("numOfBins", numOfBins);
+        this.conf.setBoolean("voteFractions", voteFractions);
+        this.conf.setInt("treesPerSplit", treesPerSplit);
+        this.conf.setInt("maxTasksPerHost", maxTasksPerHost);
+        this.conf.setInt("readThreads", readThreads);
+        this.conf.setBoolean("offHeap", offHeap);
 
         this.job = Job.getInstance(conf, "RandomForest");
         this.job.setJarByClass( RFMapReduce.class);
         this.job.setMapperClass(RFMapper.class);
+        this.job.setCombinerClass(RFCombiner.class);
         this.job.setReducerClass(RFReducer.class);
 
         // Train data path.
@@ -293,8 +637,9 @@ public class RFMapReduce {
         // Output path.
         FileOutputFormat.setOutputPath(this.job, new Path(args[1]));
 
-        this.job.setMapOutputKeyClass(Text.class);
-        this.job.setMapOutputValueClass(Text.class);
+        // Test rows are shuffled as byte offsets, compared by LongWritable's raw comparator.
+        this.job.setMapOutputKeyClass(LongWritable.class);
+        this.job.setMapOutputValueClass(VoteWritable.class);
 
         this.job.setOutputKeyClass(Text.class);
         this.job.setOutputValueClass(Text.class);
@@ -306,6 +651,7 @@ public class RFMapReduce {
 
         if (this.job.isSuccessful()) {
             System.out.println("Job was successful");
+            assembleForest(new Path(args[1]));
         } else {
             System.out.println("Job was not successful");
         }
@@ -314,30 +660,69 @@ public class RFMapReduce {
     }
 
     /**
-     * Read tested result from output file to calculate accuracy.
-     * @param filePath The output file path. Usually as default.
+     * Assemble the trees written by mappers into one forest model file, and remove the tree files.
+     * @param outputPath The job output directory.
      * @throws IOException In case of IOException.
      */
-    public void accuracyCalculation(String filePath) throws IOException {
-        BufferedReader fileReader = new BufferedReader(new FileReader(filePath));
-        String line;
-        double all = 0;
-        double correct = 0;
-        while ((line = fileReader.readLine()) != null) {
-            all += 1;
+    private void assembleForest(Path outputPath) throws IOException {
+        FileSystem fs = outputPath.getFileSystem(this.conf);
+        FileStatus[] treeFiles = fs.globStatus(new Path(outputPath, TREE_FILE_PREFIX + "-*" + MODEL_FILE_SUFFIX));
+        if (treeFiles == null || treeFiles.length == 0) {
+            return;
+        }
 
-            String[] tokens = line.split("\t");
+        // Sorted by name, so trees keep the order of the mappers.
+        Arrays.sort(treeFiles);
+        List<CompiledForest> trees = new ArrayList<>();
+        for (FileStatus treeFile: treeFiles) {
+            trees.add(CompiledForest.load(fs, treeFile.getPath()));
+        }
+        CompiledForest.merge(trees).write(fs, new Path(outputPath, FOREST_FILE));
 
-            if (tokens.length != 2) {
-                continue;
-            }
+        for (FileStatus treeFile: treeFiles) {
+            fs.delete(treeFile.getPath(), false);
+        }
+    }
 
-            String[] temp = tokens[0].split(this.delimiter);
-            String trueLabel = temp[temp.length - 1];
-            String predictedLabel = tokens[1];
+    /**
+     * Read tested result from output files to calculate accuracy.
+     * @param filePath The output file path, or an output folder whose part-* files are all read, e.g. the output
+     *                 of a map only job with one file per mapper.
+     * @throws IOException In case of IOException.
+     */
+    public void accuracyCalculation(String filePath) throws IOException {
+        File[] files = {new File(filePath)};
+        if (files[0].isDirectory()) {
+            files = files[0].listFiles((dir, name) -> name.startsWith("part-"));
+            if (files == null) {
+                throw new IOException("Can't list " + filePath + ".");
+            }
+            Arrays.sort(files);
+        }
 
-            if (trueLabel.equals(predictedLabel)) {
-                correct += 1;
+        CsvTokenizer columns = new CsvTokenizer("\t");
+        CsvTokenizer tokens = new CsvTokenizer(this.delimiter);
+        double all = 0;
+        double correct = 0;
+        for (File file: files) {
+            try (BufferedReader fileReader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = fileReader.readLine()) != null) {
+                    all += 1;
+
+                    // Vote fractions may follow the predicted label.
+                    if (columns.tokenize(line) < 2) {
+                        continue;
+                    }
+
+                    int n = tokens.tokenize(columns.string(0));
+                    String trueLabel = tokens.string(n - 1);
+                    String predictedLabel = columns.string(1);
+
+                    if (trueLabel.equals(predictedLabel)) {
+                        correct += 1;
+                    }
+                }
             }
         }
         System.out.println("Accuracy: " + correct / all);
@@ -365,6 +750,14 @@ public class RFMapReduce {
         this.delimiter = delimiter;
 
         this.header = header;
+
+        this.histogramSplit = false;
+        this.numOfBins = 64;
+        this.voteFractions = false;
+        this.treesPerSplit = 1;
+        this.maxTasksPerHost = 0;
+        this.readThreads = 4;
+        this.offHeap = false;
     }
 
     /**
@@ -387,5 +780,13 @@ public class RFMapReduce {
         this.delimiter = delimiter;
 
         this.header = null;
+
+        this.histogramSplit = false;
+        this.numOfBins = 64;
+        this.voteFractions = false;
+        this.treesPerSplit = 1;
+        this.maxTasksPerHost = 0;
+        this.readThreads = 4;
+        this.offHeap = false;
     }
 }
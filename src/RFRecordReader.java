@@ -1,45 +1,88 @@
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.fs.FSDataInputStream;
-import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.RecordReader;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
-import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.CombineFileSplit;
 import org.apache.hadoop.util.LineReader;
 
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Created by d_d on 3/12/17.
  *
- * This class is essential for creating subset with replacement
- * of training data for each tree(in this case, mapper).
+ * This class reads the training data for each mapper, the mapper draws the subset of each of its trees.
+ * Lines are streamed one record at a time, so the mapper parses them directly into its dataset without buffering
+ * the data as strings.
+ * The training data is every text file of the split, e.g. the part files of an upstream job. Files are read by up to
+ * readThreads threads ahead of the mapper, each into its own bounded queue, and lines are returned in file order, so
+ * the mapper sees the same rows in the same order however many threads read them.
  */
-public class RFRecordReader extends RecordReader<IntWritable, Text> {
-    // Only assign value once for mapper who's calling RFRecordReader.
-    private boolean returned;
+public class RFRecordReader extends RecordReader<LongWritable, Text> {
+    // The number of lines read at a time into a queue.
+    private static final int CHUNK_SIZE = 1024;
+
+    // The number of chunks a reading thread reads ahead of the mapper for each file.
+    private static final int CHUNKS_AHEAD = 4;
 
     // For line reader's input. Can be set to max.
     private int maxLineLength;
 
-    // The random factor for training subset selection.
-    private double trainSubsetFraction;
-
-    // Key is not really used.
-    private IntWritable key = new IntWritable();
+    // The offset of the current line in the training data, files are laid one after another.
+    private LongWritable key = new LongWritable();
 
-    // Use value to store subset of data.(Generated with replacement.)
+    // The current line, reused for every line.
     private Text value = new Text();
 
-    private LineReader in;
+    // The files of the split.
+    private Path[] files;
+
+    // The offset of each file in the training data.
+    private long[] fileStarts;
+
+    // The total length of all files.
+    private long end;
+
+    // The offset of the next line.
+    private long pos;
+
+    // The file being returned.
+    private int fileIdx;
+
+    // Chunks of each file read ahead, in order.
+    private List<BlockingQueue<Chunk>> queues;
+
+    // The chunk being returned, and the next line in it.
+    private Chunk chunk;
+    private int lineIdx;
+
+    // Threads reading files ahead.
+    private ExecutorService readers;
+
+    /**
+     * Lines read at a time from one file. A chunk without lines ends the file.
+     */
+    private static class Chunk {
+        // The lines.
+        List<Text> lines = new ArrayList<>();
+
+        // Offset of each line in the training data.
+        long[] offsets = new long[CHUNK_SIZE];
+
+        // The error ending the file, NULL if the file is read completely.
+        Throwable error;
+    }
 
     @Override
-    public IntWritable getCurrentKey() {
+    public LongWritable getCurrentKey() {
         return this.key;
     }
 
@@ -50,53 +93,42 @@ public class RFRecordReader extends RecordReader<IntWritable, Text> {
 
     @Override
     public boolean nextKeyValue() throws IOException {
-        if (returned) {
-            return false;
-        } else {
-            List<String> entries = new ArrayList<>();
-
-            List<String> bagging = new ArrayList<>();
-
-            Text line = new Text();
-            int size = 1;
-            // Read all data.
-            while (size != 0) {
-                size = in.readLine(line, maxLineLength);
-                entries.add(line.toString());
+        while (this.chunk == null || this.lineIdx == this.chunk.lines.size()) {
+            if (this.fileIdx == this.files.length) {
+                this.pos = this.end;
+                return false;
             }
-
-
-            // Below is generating a fraction(subset) of training data.
-            int trainSubsetSize = (int) (entries.size() * trainSubsetFraction);
-            ArrayList<Integer> trainIndexes = new ArrayList<>();
-
-            for (int i = 0; i < trainSubsetSize; i ++) {
-                Integer index = (int) (Math.random() * (entries.size()));
-
-                while (trainIndexes.contains(index)) {
-                    index = (int) (Math.random() * (entries.size()));
-                }
-
-                trainIndexes.add(index);
-                bagging.add(entries.get(index));
+            try {
+                this.chunk = this.queues.get(this.fileIdx).take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Reading was interrupted.", e);
             }
-
-            // Generating the passable string, to give it back to mapper.
-            String writableEntries = "";
-            for (String s: bagging) {
-                writableEntries += (s + "\n");
+            this.lineIdx = 0;
+            if (this.chunk.error instanceof IOException) {
+                throw (IOException) this.chunk.error;
+            } else if (this.chunk.error != null) {
+                throw new IOException("Reading " + this.files[this.fileIdx] + " failed.", this.chunk.error);
+            }
+            if (this.chunk.lines.isEmpty()) {
+                this.chunk = null;
+                this.fileIdx ++;
+                this.pos = this.fileIdx < this.files.length ? this.fileStarts[this.fileIdx] : this.end;
             }
-
-            value = new Text(writableEntries);
-
-            returned = true;
-            return true;
         }
+        this.key.set(this.chunk.offsets[this.lineIdx]);
+        this.value.set(this.chunk.lines.get(this.lineIdx));
+        this.pos = this.chunk.offsets[this.lineIdx];
+        this.lineIdx ++;
+        return true;
     }
 
     @Override
     public float getProgress() throws IOException {
-        return 0;
+        if (this.end == 0) {
+            return 1.0f;
+        }
+        return Math.min(1.0f, this.pos / (float) this.end);
     }
 
     /**
@@ -107,29 +139,89 @@ public class RFRecordReader extends RecordReader<IntWritable, Text> {
      */
     @Override
     public void initialize(InputSplit genericSplit, TaskAttemptContext context) throws IOException {
-        FileSplit split = (FileSplit) genericSplit;
-        Configuration conf = context.getConfiguration();
-
-        this.trainSubsetFraction = Double.parseDouble(conf.get("trainSubsetFraction"));
+        CombineFileSplit split = (CombineFileSplit) genericSplit;
+        final Configuration conf = context.getConfiguration();
 
         this.maxLineLength = conf.getInt("mapred.linerecordreader.maxlength", Integer.MAX_VALUE);
 
-        final Path file = split.getPath();
-        FileSystem fs = file.getFileSystem(conf);
-        FSDataInputStream fileIn = fs.open(split.getPath());
-
-        in = new LineReader(fileIn, conf);
+        // Every split covers all files, each mapper trains on all of the data. Dataset files are loaded by the
+        // mapper instead.
+        List<Path> textFiles = new ArrayList<>();
+        List<Long> lengths = new ArrayList<>();
+        for (int f = 0; f < split.getNumPaths(); f ++) {
+            if (!DatasetFile.isDatasetFile(split.getPath(f))) {
+                textFiles.add(split.getPath(f));
+                lengths.add(split.getLength(f));
+            }
+        }
+        this.files = textFiles.toArray(new Path[0]);
+        this.fileStarts = new long[this.files.length];
+        this.queues = new ArrayList<>();
+        for (int f = 0; f < this.files.length; f ++) {
+            this.fileStarts[f] = this.end;
+            this.end += lengths.get(f);
+            this.queues.add(new ArrayBlockingQueue<Chunk>(CHUNKS_AHEAD));
+        }
 
-        returned = false;
+        // Files are read in order, the mapper always drains the earliest file still being read, so reading threads
+        // waiting on later files' full queues never block it.
+        int readThreads = Math.max(1, Math.min(conf.getInt("readThreads", 4), this.files.length));
+        this.readers = Executors.newFixedThreadPool(readThreads);
+        for (int f = 0; f < this.files.length; f ++) {
+            final int file = f;
+            this.readers.submit(() -> readFile(conf, file));
+        }
+        this.readers.shutdown();
     }
 
     /**
-     * Not used.
-     * @throws IOException In case of IOException.
+     * Read one file into its queue, chunk by chunk. The chunk ending the file is always put, carrying the error if
+     * reading fails, so nextKeyValue() never waits for it forever.
+     * @param conf The job configuration.
+     * @param file The file index.
      */
+    private void readFile(Configuration conf, int file) {
+        BlockingQueue<Chunk> queue = this.queues.get(file);
+        Chunk chunk = new Chunk();
+        try {
+            try (LineReader in = new LineReader(this.files[file].getFileSystem(conf).open(this.files[file]), conf)) {
+                long offset = this.fileStarts[file];
+                Text line = new Text();
+                int size;
+                while ((size = in.readLine(line, this.maxLineLength)) > 0) {
+                    chunk.offsets[chunk.lines.size()] = offset;
+                    chunk.lines.add(line);
+                    offset += size;
+                    line = new Text();
+                    if (chunk.lines.size() == CHUNK_SIZE) {
+                        // The next chunk is allocated first, so an error always lands in a chunk not put yet.
+                        Chunk next = new Chunk();
+                        queue.put(chunk);
+                        chunk = next;
+                    }
+                }
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Throwable e) {
+                // Any error ends the file, e.g. running out of memory while reading ahead.
+                chunk.error = e;
+            }
+            if (!chunk.lines.isEmpty() && chunk.error == null) {
+                queue.put(chunk);
+                chunk = new Chunk();
+            }
+            queue.put(chunk);
+        } catch (InterruptedException e) {
+            // The reader is closed.
+            Thread.currentThread().interrupt();
+        }
+    }
+
     @Override
     public void close() throws IOException {
-
+        if (this.readers != null) {
+            this.readers.shutdownNow();
+        }
     }
 
 }
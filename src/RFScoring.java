@@ -0,0 +1,238 @@
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.Job;
+import org.apache.hadoop.mapreduce.JobContext;
+import org.apache.hadoop.mapreduce.Mapper;
+import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
+import org.apache.hadoop.mapreduce.lib.input.FileSplit;
+import org.apache.hadoop.mapreduce.lib.input.TextInputFormat;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
+
+import java.io.IOException;
+
+/**
+ * This class is the MapReduce batch scoring job for a persisted forest, e.g. the forest assembled by RFMapReduce.
+ * It's independent from training, so new data can be scored without retraining.
+ *
+ * This structure is as follows:
+ * ===============================================================================================================
+ * | 1. The data to score is the job input, it's split by the framework like any text input.
+ * | 2. Each mapper loads the whole forest once in setup().
+ * | 3. Each mapper takes the majority vote of all trees for every row of its split.
+ * | 4. Rows and their predicted labels are written directly, it's a map only job, there is no shuffle.
+ * ===============================================================================================================
+ * If the data to score are dataset files converted by RFConversion, each mapper reads one file in chunks of
+ * SCORING_CHUNK_SIZE rows instead. The rows aren't turned back into text, each prediction is written with the
+ * row's position as "file name:row number", so it can be joined back to the original data.
+ * Scoring work scales with the data size instead of the number of trees.
+ */
+public class RFScoring {
+    // The number of rows of a dataset file scored at a time.
+    static final int SCORING_CHUNK_SIZE = 4096;
+
+    // Configuration.
+    public Configuration conf;
+
+    //MapReduce Job.
+    public Job job;
+
+    // Data CSV file delimiter.
+    private String delimiter;
+
+    /**
+     * Mapper class for scoring.
+     * Each RFScoringMapper Instance scores one split of the data with the whole forest.
+     */
+    public static class RFScoringMapper extends Mapper<LongWritable, Text, Text, Text> {
+        // Data CSV file delimiter.
+        String delimiter;
+
+        // The forest to predict with.
+        CompiledForest forest;
+
+        // The row being scored, reused for every row. It shares the forest's dictionaries.
+        Dataset row;
+
+        // Votes of each label id, reused for every row.
+        int[] votes;
+
+        // The predicted label, reused for every row.
+        Text predictedLabel;
+
+        // Tokenizer of data lines, reused for every line.
+        CsvTokenizer tokens;
+
+        /**
+         * Overridden setup method to load the forest.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         */
+        @Override
+        protected void setup(Context context) throws IOException {
+            Configuration conf = context.getConfiguration();
+            delimiter = conf.get("delimiter");
+            tokens = new CsvTokenizer(delimiter);
+
+            Path forestPath = new Path(conf.get("forestPath"));
+            forest = CompiledForest.load(forestPath.getFileSystem(conf), forestPath);
+
+            row = forest.newDataset();
+            votes = new int[row.labelDictionary.size()];
+            predictedLabel = new Text();
+        }
+
+        /**
+         * Predict one row of the data.
+         * @param key   The offset of the row, no actual use.
+         * @param value The row.
+         * @param context   The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        public void map(LongWritable key, Text value, Context context) throws IOException, InterruptedException {
+            row.clear();
+
+            // Rows without one value per attribute are skipped.
+            tokens.tokenize(value);
+            if (!row.addAttributes(tokens)) {
+                return;
+            }
+
+            int majority = forest.vote(row, 0, votes);
+            predictedLabel.set(row.labelDictionary.decode(majority));
+
+            context.write(value, predictedLabel);
+        }
+    }
+
+    /**
+     * Mapper class for scoring dataset files.
+     * Each RFColumnarScoringMapper Instance scores one whole dataset file, chunk by chunk.
+     */
+    public static class RFColumnarScoringMapper extends RFScoringMapper {
+        /**
+         * Overridden run method, the dataset file is read directly instead of being read as records.
+         * Each row is written as "file name:row number" and its predicted label.
+         * @param context The job context.
+         * @throws IOException In case of IOException.
+         * @throws InterruptedException In case of InterruptedException.
+         */
+        @Override
+        public void run(Context context) throws IOException, InterruptedException {
+            setup(context);
+
+            // The file's dictionary ids are translated into the forest's, new categories are -1 and never match a
+            // decision.
+            Path path = ((FileSplit) context.getInputSplit()).getPath();
+            Dataset data = forest.newDataset();
+            data.lookupOnly = true;
+
+            Text position = new Text();
+            StringBuilder builder = new StringBuilder();
+            try (DatasetFile.Reader reader = new DatasetFile.Reader(path.getFileSystem(context.getConfiguration()), path, data)) {
+                long firstRow = 0;
+                while (true) {
+                    data.clear();
+                    if (reader.read(data, SCORING_CHUNK_SIZE) == 0) {
+                        break;
+                    }
+                    for (int i = 0; i < data.size; i ++) {
+                        int majority = forest.vote(data, i, votes);
+                        builder.setLength(0);
+                        builder.append(path.getName()).append(':').append(firstRow + i);
+                        position.set(builder.toString());
+                        predictedLabel.set(data.labelDictionary.decode(majority));
+                        context.write(position, predictedLabel);
+                    }
+                    firstRow += data.size;
+                }
+            }
+
+            cleanup(context);
+        }
+    }
+
+    /**
+     * Input format of dataset files, each dataset file is scored whole by one mapper.
+     */
+    public static class RFColumnarInputFormat extends TextInputFormat {
+        @Override
+        protected boolean isSplitable(JobContext context, Path file) {
+            return false;
+        }
+    }
+
+    /**
+     * Accepts dataset files only.
+     */
+    public static class DatasetFileFilter implements PathFilter {
+        @Override
+        public boolean accept(Path path) {
+            return DatasetFile.isDatasetFile(path);
+        }
+    }
+
+    /**
+     * The driver method used to start the scoring job.
+     * @param args  [data to score] [output folder] [forest model file].
+     * @return Indicate if the job is completely successfully.
+     * @throws Exception In case of Exception.
+     */
+    public int ScoringDriver(String[] args) throws Exception {
+        this.conf = new Configuration();
+
+        // Configuration are used to pass in parameters for Mapper.
+        this.conf.set("delimiter", delimiter);
+        this.conf.set("forestPath", args[2]);
+
+        this.job = Job.getInstance(conf, "RandomForestScoring");
+        this.job.setJarByClass(RFScoring.class);
+        this.job.setMapperClass(RFScoringMapper.class);
+
+        // Map only, predictions are written by mappers.
+        this.job.setNumReduceTasks(0);
+
+        // Data to score, dataset files if there are any.
+        Path input = new Path(args[0]);
+        FileStatus[] datasetFiles = input.getFileSystem(this.conf).listStatus(input, new DatasetFileFilter());
+        if (datasetFiles.length > 0) {
+            for (FileStatus file: datasetFiles) {
+                FileInputFormat.addInputPath(this.job, file.getPath());
+            }
+            this.job.setMapperClass(RFColumnarScoringMapper.class);
+            this.job.setInputFormatClass(RFColumnarInputFormat.class);
+        } else {
+            FileInputFormat.addInputPath(this.job, input);
+            this.job.setInputFormatClass(TextInputFormat.class);
+        }
+
+        // Output path.
+        FileOutputFormat.setOutputPath(this.job, new Path(args[1]));
+
+        this.job.setOutputKeyClass(Text.class);
+        this.job.setOutputValueClass(Text.class);
+
+        int returnValue = this.job.waitForCompletion(true) ? 0 : 1;
+
+        if (this.job.isSuccessful()) {
+            System.out.println("Job was successful");
+        } else {
+            System.out.println("Job was not successful");
+        }
+
+        return returnValue;
+    }
+
+    /**
+     * Constructor for RFScoring.
+     * @param delimiter Data CSV file delimiter.
+     */
+    public RFScoring(String delimiter) {
+        this.delimiter = delimiter;
+    }
+}
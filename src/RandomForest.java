@@ -1,7 +1,15 @@
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Created by d_d on 3/1/17.
@@ -23,39 +31,43 @@ public class RandomForest {
     // A data structure to store all the decision trees.
     private ArrayList<DecisionTree> randomForest;
 
+    // The compiled forest used for prediction, produced after training.
+    public CompiledForest compiled;
+
     // Training Data.
-    private Entries trainData;
+    public Dataset trainData;
 
-    // Testing Data.
-    private Entries testData;
+    // Testing Data. It shares the dictionaries of training data.
+    public Dataset testData;
 
     // The useful choosen attributes.
     private ArrayList<Boolean> chosenAttributes;
 
-    // The random factor for training subset selection.
+    // The random factor for training subset selection, the number of rows drawn with replacement for each tree as
+    // a fraction of the training rows.
     public double trainSubsetFraction;
 
     // Indicates the Random subspace in Random Forest.
     public int attrSubspaceNum;
 
+    // Use histogram splitting for continuous attributes instead of exact splitting.
+    public boolean histogramSplit;
+
+    // The maximum number of bins per continuous attribute for histogram splitting.
+    public int numOfBins;
+
+    // The seed of the forest, the same seed grows the same forest.
+    public long seed;
+
+    // The number of threads growing trees, if no executor is given.
+    public int numOfThreads;
+
+    // Keep the training indexes outside the heap, see DecisionTree.offHeap.
+    public boolean offHeap;
+
+    // The executor growing trees. NULL to use a pool of numOfThreads threads created for each training.
+    public ExecutorService executor;
 
-    /**
-     * A utility that facilitates the counting process in a hash map for certain key.
-     * Same as in python Collections.Counter().
-     * @param hashMap The hash map that needs to be updated.
-     * @param key The key that needs to be updated.
-     * @return The updated hash map.
-     */
-    private Map<String, Integer> Counter(Map<String, Integer> hashMap, String key) {
-        Map<String, Integer> temp = new HashMap<>(hashMap);
-        if (temp.containsKey(key)) {
-            int count = temp.get(key);
-            temp.put(key, ++ count);
-        } else {
-            temp.put(key, 1);
-        }
-        return temp;
-    }
 
     /**
      * A utility function to read a CSV as a List of String Arrays, each element is a row.
@@ -64,32 +76,45 @@ public class RandomForest {
      * @throws IOException In case of IOException.
      */
     public List<String[]> readCSV(String filePath, boolean header) throws IOException {
-        BufferedReader fileReader = new BufferedReader(new FileReader(filePath));
-        String line;
+        CsvTokenizer tokens = new CsvTokenizer(this.delimiter);
         List<String[]> entries = new ArrayList<>();
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(filePath))) {
+            String line;
 
-        // Process header;
-        if (header) {
-            this.attributesName = new ArrayList<>();
-            line = fileReader.readLine();
-
-            this.attributesName.addAll(Arrays.asList(line.split(this.delimiter)));
-
-            // Usually specify the random subspace as the sqrt of the attributes number.
-            this.attrSubspaceNum = (int) Math.sqrt(this.attributesName.size());
-
-        }
-        while ((line = fileReader.readLine()) != null) {
-
-            String[] tokens = line.split(this.delimiter);
-
-            if (tokens.length > 0) {
-                entries.add(tokens);
+            // Process header;
+            if (header && (line = fileReader.readLine()) != null) {
+                readHeader(line, tokens);
+            }
+            while ((line = fileReader.readLine()) != null) {
+                int n = tokens.tokenize(line);
+                if (n > 0) {
+                    String[] entry = new String[n];
+                    for (int i = 0; i < n; i ++) {
+                        entry[i] = tokens.string(i);
+                    }
+                    entries.add(entry);
+                }
             }
         }
         return entries;
     }
 
+    /**
+     * A utility function to read the attributes' names from the header.
+     * @param line The header line.
+     * @param tokens The tokenizer.
+     */
+    private void readHeader(String line, CsvTokenizer tokens) {
+        this.attributesName = new ArrayList<>();
+        int n = tokens.tokenize(line);
+        for (int i = 0; i < n; i ++) {
+            this.attributesName.add(tokens.string(i));
+        }
+
+        // Usually specify the random subspace as the sqrt of the attributes number.
+        this.attrSubspaceNum = (int) Math.sqrt(this.attributesName.size());
+    }
+
     /**
      * A utility function for loadData function, to add data to DecisionTree properties.
      * @param training Indicate if the data is training data.
@@ -97,20 +122,10 @@ public class RandomForest {
      */
     private void loadDataUtil(boolean training, List<String[]> entries) {
         for (String[] s: entries) {
-            int i;
-
-            Entry newEntry = new Entry();
-            for (i = 0; i < s.length - 1; i ++) {
-                newEntry.attributes.add(new CellData(s[i], this.typeSpecification.get(i)));
-            }
-
-            // The last column is as default the label.
-            newEntry.label = s[i];
-
             if (training) {
-                this.trainData.entries.add(newEntry);
+                this.trainData.add(s);
             } else {
-                this.testData.entries.add(newEntry);
+                this.testData.add(s);
             }
         }
     }
@@ -119,13 +134,24 @@ public class RandomForest {
      * A public method for user to load data for DecisionTree class.
      * NOTICE: Training data and test data need to be loaded seperately, label is as default the last column
      *         in the dataset.
+     * Rows are tokenized straight into the dataset, no String is created per value.
      * @param training  Indicate if the file is training data.
      * @param filePath  Indicate the filepath.
      * @throws IOException In case of IOException.
      */
     public void loadData(boolean training, String filePath, boolean header) throws IOException {
-        List<String[]> entries = readCSV(filePath, header);
-        loadDataUtil(training, entries);
+        Dataset data = training ? this.trainData : this.testData;
+        CsvTokenizer tokens = new CsvTokenizer(this.delimiter);
+        try (BufferedReader fileReader = new BufferedReader(new FileReader(filePath))) {
+            String line;
+            if (header && (line = fileReader.readLine()) != null) {
+                readHeader(line, tokens);
+            }
+            while ((line = fileReader.readLine()) != null) {
+                tokens.tokenize(line);
+                data.add(tokens);
+            }
+        }
     }
 
     /**
@@ -147,8 +173,8 @@ public class RandomForest {
      */
     public RandomForest(ArrayList<Boolean> typeSpecification, ArrayList<Boolean> chosenAttributes, String delimiter) {
         this.randomForest = new ArrayList<>();
-        this.trainData = new Entries();
-        this.testData = new Entries();
+        this.trainData = new Dataset(typeSpecification);
+        this.testData = new Dataset(this.trainData);
         this.typeSpecification = typeSpecification;
         this.chosenAttributes = chosenAttributes;
         this.delimiter = delimiter;
@@ -157,6 +183,14 @@ public class RandomForest {
         this.trainSubsetFraction = 2.0 / 3.0;
 
         this.attributesName = null;
+
+        this.histogramSplit = false;
+        this.numOfBins = 64;
+
+        this.seed = System.nanoTime();
+        this.numOfThreads = Runtime.getRuntime().availableProcessors();
+        this.executor = null;
+        this.offHeap = false;
     }
 
 
@@ -173,40 +207,117 @@ public class RandomForest {
 
     /**
      * Funtion to start growing trees in forest.
+     * Trees are grown concurrently on the executor, each tree draws its own bootstrap sample inside its task.
+     * Each tree's random generator is seeded from the forest's seed in tree order, so the forest only depends on
+     * the seed, not on the number of threads or the scheduling.
      */
     public void startTraining() {
-        int trainSubsetSize = (int) (this.trainData.entries.size() * this.trainSubsetFraction);
+        final int trainSubsetSize = (int) (this.trainData.size * this.trainSubsetFraction);
+
+        // The training data is sorted once for all trees, each tree only filters out the rows its bootstrap sample
+        // leaves out. Bins are formed by each tree over its own sample.
+        final SortedIndex index = new SortedIndex(this.trainData, this.chosenAttributes, !this.histogramSplit, null, this.offHeap);
+
+        ExecutorService executor = this.executor != null ? this.executor : Executors.newFixedThreadPool(this.numOfThreads);
+        try {
+            Random seeds = new Random(this.seed);
+            List<Future<?>> futures = new ArrayList<>();
+            for (final DecisionTree dt: this.randomForest) {
+                final long treeSeed = seeds.nextLong();
+                futures.add(executor.submit(() -> growTree(dt, treeSeed, trainSubsetSize, index)));
+            }
+            for (Future<?> future: futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Training was interrupted.", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Training a tree failed.", e.getCause());
+        } finally {
+            // Only the executor created here is shut down, a given one belongs to the caller.
+            if (this.executor == null) {
+                executor.shutdown();
+            }
+        }
 
+        // Trees are printed after training, in order.
         for (DecisionTree dt: this.randomForest) {
-
             System.out.println("Tree " + this.randomForest.indexOf(dt) + ":");
 
-            ArrayList<Integer> trainIndexes = new ArrayList<>();
+            dt.preorderTraversePrint(dt.start, dt.root, -1, false, true);
 
-            for (int i = 0; i < trainSubsetSize; i ++) {
-                Integer index = (int) (Math.random() * (this.trainData.entries.size()));
+            System.out.println("\n\n");
+        }
 
-                while (trainIndexes.contains(index)) {
-                    index = (int) (Math.random() * (this.trainData.entries.size()));
-                }
+        List<Node> roots = new ArrayList<>();
+        for (DecisionTree dt: this.randomForest) {
+            roots.add(dt.root);
+        }
+        this.compiled = CompiledForest.compile(roots, this.trainData);
+    }
 
-                trainIndexes.add(index);
+    /**
+     * Grow one tree on a bootstrap sample of the training data, drawn with replacement. The sample is a weight per
+     * row, the number of times the row is drawn, so no row is copied.
+     * @param dt The tree to grow.
+     * @param treeSeed The seed of the tree's random generator.
+     * @param trainSubsetSize The number of rows drawn.
+     * @param index The presorted index of the whole training data.
+     */
+    private void growTree(DecisionTree dt, long treeSeed, int trainSubsetSize, SortedIndex index) {
+        Random random = new Random(treeSeed);
 
-                dt.trainData.entries.add(this.trainData.entries.get(index));
-            }
+        // The tree trains on the forest's training data directly.
+        dt.trainData = this.trainData;
 
-            dt.attrSubspaceNum = this.attrSubspaceNum;
+        // Multinomial draw in O(trainSubsetSize).
+        int[] weights = new int[this.trainData.size];
+        for (int i = 0; i < trainSubsetSize; i ++) {
+            weights[random.nextInt(weights.length)] ++;
+        }
+        dt.weights = weights;
+        dt.sharedIndex = index;
 
-            dt.attributesName = this.attributesName;
+        dt.random = random;
 
-            dt.startTraining();
+        // Threads left over when there are fewer trees than threads grow subtrees concurrently.
+        dt.numOfThreads = Math.max(1, this.numOfThreads / this.randomForest.size());
 
-            dt.preorderTraversePrint(dt.start, dt.root, -1, false, true);
+        dt.attrSubspaceNum = this.attrSubspaceNum;
 
-            System.out.println("\n\n");
+        dt.histogramSplit = this.histogramSplit;
+        dt.numOfBins = this.numOfBins;
+        dt.offHeap = this.offHeap;
+
+        dt.attributesName = this.attributesName;
+
+        dt.startTraining();
+    }
+
+    /**
+     * Save the trained forest as a forest model file.
+     * @param filePath The model file path.
+     * @throws IOException In case of IOException.
+     */
+    public void saveModel(String filePath) throws IOException {
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(filePath))) {
+            this.compiled.write(out);
         }
     }
 
+    /**
+     * Load a forest model file instead of training, e.g. the forest assembled by RFMapReduce.
+     * NOTICE: The test data uses the model's dictionaries, so it needs to be loaded after the model.
+     * @param filePath The model file path.
+     * @throws IOException In case of IOException.
+     */
+    public void loadModel(String filePath) throws IOException {
+        this.compiled = CompiledForest.load(new File(filePath));
+        this.testData = this.compiled.newDataset();
+        this.testData.lookupOnly = true;
+    }
+
 
     /**
      * Funtion to start testing the test dataset.
@@ -215,30 +326,33 @@ public class RandomForest {
     public double startTesting() {
         double correct = 0;
         double all = 0;
-        for (Entry e: this.testData.entries) {
 
-            Map<String, Integer> predictedLabels = new HashMap<>();
+        // Votes of each label id.
+        int[] predictedLabels = new int[this.testData.labelDictionary.size()];
+
+        for (int row = 0; row < this.testData.size; row ++) {
+
+            String label = this.testData.label(row);
+
+            Arrays.fill(predictedLabels, 0);
 
             // For each test record, get predicted labels from all trees.
-            for (DecisionTree dt : this.randomForest) {
-                String predictedLabel = dt.startTesting(e);
-                predictedLabels = Counter(predictedLabels, predictedLabel);
+            for (int tree = 0; tree < this.compiled.numOfTrees(); tree ++) {
+                int predictedLabel = this.compiled.predict(tree, this.testData, row);
+                predictedLabels[predictedLabel] ++;
 
-                System.out.print(predictedLabel + "\t");
+                System.out.print(this.testData.labelDictionary.decode(predictedLabel) + "\t");
             }
 
-            String finalLabel = Collections.max(predictedLabels.entrySet(), Map.Entry.comparingByValue()).getKey();
+            int majority = CompiledForest.majority(predictedLabels);
+            String finalLabel = this.testData.labelDictionary.decode(majority);
 
-            System.out.print("\nFinal: " + finalLabel + ", True: " + e.label + "\n");
+            System.out.print("\nFinal: " + finalLabel + ", True: " + label + "\n");
 
-            if (finalLabel.equals(e.label)) {
+            if (finalLabel.equals(label)) {
                 correct ++;
             } else {
-                System.out.print("Miss classifying [ ");
-                for (CellData d: e.attributes) {
-                    System.out.print(d.value + ", ");
-                }
-                System.out.print(e.label + "]\tas [" + finalLabel + "]\n");
+                System.out.print("Miss classifying [ " + this.testData.toString(row, ", ") + "]\tas [" + finalLabel + "]\n");
             }
 
             System.out.println();
@@ -0,0 +1,246 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * This class is the presorted attribute index of a tree's training data (SLIQ/SPRINT style).
+ * Rows are referred to by their row in the dataset, each with a weight, so a bootstrap sample is an index over the
+ * shared dataset instead of a copy of the rows. Every continuous attribute is sorted once per tree,
+ * after that each node owns a range [from, to) of every array, and splitting a node stable partitions the range
+ * into its children's ranges, so children inherit their sorted order without sorting again.
+ * Splits of disjoint ranges touch disjoint parts of every array, so subtrees can be grown concurrently.
+ * The arrays are int buffers, optionally direct buffers outside the heap: they are the bulk of a tree's training
+ * memory, one int per row for every continuous attribute.
+ */
+class SortedIndex {
+    // The tree's training data.
+    Dataset data;
+
+    // Weight of each row, indexed by row. It's the number of times a row is drawn into the tree's bootstrap
+    // sample, rows with weight 0 are not in the index.
+    int[] weights;
+
+    // The number of rows in the index.
+    int size;
+
+    // Rows in their original order.
+    IntBuffer rows;
+
+    // Rows sorted by each continuous attribute. NULL for categorical, ignored or unsorted attributes.
+    IntBuffer[] sorted;
+
+    // Marks the rows that go to the left child during a split with 1, indexed by row.
+    private ByteBuffer goesLeft;
+
+    // Scratch space for stable partition.
+    private IntBuffer buffer;
+
+    // Indicate if the buffers are direct buffers outside the heap.
+    private boolean offHeap;
+
+    /**
+     * Constructor for SortedIndex, sorts every chosen continuous attribute once.
+     * @param data The training data.
+     * @param chosenAttributes A boolean array indicates the attributes that user choose to use/ignore.
+     * @param presort Indicate if the continuous attributes need to be sorted. Histogram splitting doesn't.
+     * @param weights Weight of each row, rows with weight 0 are left out. NULL if every row has weight 1.
+     * @param offHeap Indicate if the buffers are allocated outside the heap.
+     */
+    SortedIndex(Dataset data, List<Boolean> chosenAttributes, boolean presort, int[] weights, boolean offHeap) {
+        this.data = data;
+        this.offHeap = offHeap;
+        this.weights = weights != null ? weights : ones(data.size);
+        this.rows = inBag(this.weights, data.size);
+        this.size = this.rows.limit();
+        this.goesLeft = allocateBytes(data.size);
+        this.buffer = allocate(this.size);
+
+        int n = this.size;
+        this.sorted = new IntBuffer[data.numOfAttributes()];
+        if (!presort) {
+            return;
+        }
+        for (int attrIdx = 0; attrIdx < data.numOfAttributes(); attrIdx ++) {
+            if (data.typeSpecification.get(attrIdx) || !chosenAttributes.get(attrIdx)) {
+                continue;
+            }
+
+            // Sort the rows by their values once, ties keep their original order. Keys are primitive: each value
+            // is replaced by its position among the sorted values and packed above its row, rows are ascending.
+            double[] values = data.continuous[attrIdx];
+            double[] sortedValues = new double[n];
+            for (int i = 0; i < n; i ++) {
+                sortedValues[i] = values[this.rows.get(i)];
+            }
+            Arrays.sort(sortedValues);
+
+            long[] keys = new long[n];
+            for (int i = 0; i < n; i ++) {
+                int row = this.rows.get(i);
+                keys[i] = ((long) Arrays.binarySearch(sortedValues, values[row]) << 32) | row;
+            }
+            Arrays.sort(keys);
+
+            this.sorted[attrIdx] = allocate(n);
+            for (int i = 0; i < n; i ++) {
+                this.sorted[attrIdx].put(i, (int) keys[i]);
+            }
+        }
+    }
+
+    /**
+     * Constructor for a weighted SortedIndex derived from an index of the whole data, e.g. for a bootstrap sample
+     * of a forest's training data. The rows left out are filtered from every array, so no sorting is needed.
+     * @param full The index of the whole data, every row with weight 1.
+     * @param weights Weight of each row, rows with weight 0 are left out.
+     * @param offHeap Indicate if the buffers are allocated outside the heap.
+     */
+    SortedIndex(SortedIndex full, int[] weights, boolean offHeap) {
+        this.data = full.data;
+        this.offHeap = offHeap;
+        this.weights = weights;
+        this.rows = filter(full.rows, weights);
+        this.size = this.rows.limit();
+        this.goesLeft = allocateBytes(this.data.size);
+        this.buffer = allocate(this.size);
+
+        this.sorted = new IntBuffer[full.sorted.length];
+        for (int attrIdx = 0; attrIdx < full.sorted.length; attrIdx ++) {
+            if (full.sorted[attrIdx] != null) {
+                this.sorted[attrIdx] = filter(full.sorted[attrIdx], weights);
+            }
+        }
+    }
+
+    /**
+     * A utility to allocate an int buffer, on or off the heap.
+     * @param n The number of ints.
+     * @return The buffer.
+     */
+    private IntBuffer allocate(int n) {
+        if (this.offHeap) {
+            return ByteBuffer.allocateDirect(4 * n).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+        return IntBuffer.allocate(n);
+    }
+
+    /**
+     * A utility to allocate a byte buffer, on or off the heap.
+     * @param n The number of bytes.
+     * @return The buffer.
+     */
+    private ByteBuffer allocateBytes(int n) {
+        return this.offHeap ? ByteBuffer.allocateDirect(n) : ByteBuffer.allocate(n);
+    }
+
+    /**
+     * A utility to create weight 1 for every row.
+     * @param n The number of rows.
+     * @return The weights.
+     */
+    private static int[] ones(int n) {
+        int[] weights = new int[n];
+        Arrays.fill(weights, 1);
+        return weights;
+    }
+
+    /**
+     * A utility to list the rows with weight, in their original order.
+     * @param weights Weight of each row.
+     * @param n The number of rows.
+     * @return The rows with weight.
+     */
+    private IntBuffer inBag(int[] weights, int n) {
+        int size = 0;
+        for (int row = 0; row < n; row ++) {
+            if (weights[row] > 0) {
+                size ++;
+            }
+        }
+        IntBuffer rows = allocate(size);
+        for (int row = 0; row < n; row ++) {
+            if (weights[row] > 0) {
+                rows.put(row);
+            }
+        }
+        rows.clear();
+        return rows;
+    }
+
+    /**
+     * A utility to filter the rows with weight from an order, keeping the order.
+     * @param order The rows in some order.
+     * @param weights Weight of each row.
+     * @return The rows with weight, in the same order.
+     */
+    private IntBuffer filter(IntBuffer order, int[] weights) {
+        int n = order.limit();
+        int size = 0;
+        for (int i = 0; i < n; i ++) {
+            if (weights[order.get(i)] > 0) {
+                size ++;
+            }
+        }
+        IntBuffer filtered = allocate(size);
+        for (int i = 0; i < n; i ++) {
+            int row = order.get(i);
+            if (weights[row] > 0) {
+                filtered.put(row);
+            }
+        }
+        filtered.clear();
+        return filtered;
+    }
+
+    /**
+     * Split a node's range according to the decision of its best splitting attribute. The left child gets
+     * [from, mid), the right child gets [mid, to), both keep the relative order of every array.
+     * @param from The start of the node's range.
+     * @param to The end(exclusive) of the node's range.
+     * @param node The node that is split.
+     * @return mid, the start of the right child's range.
+     */
+    int split(int from, int to, Node node) {
+        int mid = from;
+        for (int i = from; i < to; i ++) {
+            int row = this.rows.get(i);
+            boolean left = node.goesLeft(this.data, row);
+            this.goesLeft.put(row, (byte) (left ? 1 : 0));
+            if (left) {
+                mid ++;
+            }
+        }
+
+        partition(this.rows, from, to);
+        for (IntBuffer order: this.sorted) {
+            if (order != null) {
+                partition(order, from, to);
+            }
+        }
+        return mid;
+    }
+
+    /**
+     * Stable partition a range of an array, rows going left first.
+     * @param order The array to partition.
+     * @param from The start of the range.
+     * @param to The end(exclusive) of the range.
+     */
+    private void partition(IntBuffer order, int from, int to) {
+        int left = from;
+        int right = from;
+        for (int i = from; i < to; i ++) {
+            int row = order.get(i);
+            if (this.goesLeft.get(row) != 0) {
+                order.put(left ++, row);
+            } else {
+                this.buffer.put(right ++, row);
+            }
+        }
+        for (int i = from; i < right; i ++) {
+            order.put(left ++, this.buffer.get(i));
+        }
+    }
+}
@@ -0,0 +1,30 @@
+/**
+ * This class is a candidate boundary of one attribute found by a Node, the best one of all selected attributes
+ * becomes the node's decision.
+ */
+class Split {
+    // The attribute of the boundary.
+    int attribute;
+
+    // The weighted entropy of the children formed by the boundary.
+    double entropy;
+
+    // The decision boundary for a continuous attribute.
+    double threshold;
+
+    // The default direction for a continuous attribute, true if examples missing it go left.
+    boolean missingLeft;
+
+    // The decision category id for a categorical attribute.
+    int category;
+
+    /**
+     * Constructor for Split.
+     * @param attribute The attribute of the boundary.
+     * @param entropy The weighted entropy of the children formed by the boundary.
+     */
+    Split(int attribute, double entropy) {
+        this.attribute = attribute;
+        this.entropy = entropy;
+    }
+}
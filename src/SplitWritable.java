@@ -0,0 +1,78 @@
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * This class is the best split of one attribute at one frontier node, found by RFLevelWise's reducers or
+ * RFFeatureParallel's mappers and read by their drivers. Along with the split, it carries the node's label
+ * counts and the left child's label counts, so the driver knows the children's sizes without another pass
+ * over the data.
+ */
+public class SplitWritable implements Writable {
+    // The attribute of the split.
+    public int attribute;
+
+    // The weighted entropy of the children. Double.MAX_VALUE if no boundary separates the examples.
+    public double entropy;
+
+    // The last bin going left for a continuous attribute, or the category going left for a categorical one.
+    public Text bucket;
+
+    // The threshold of an exact split of a continuous attribute, values not greater than it go left.
+    public double threshold;
+
+    // The labels of the node.
+    public Text[] labels;
+
+    // The weighted count of each label at the node.
+    public long[] total;
+
+    // The weighted count of each label going left.
+    public long[] left;
+
+    /**
+     * Constructor for the framework, the split is set by readFields().
+     */
+    public SplitWritable() {
+        this.bucket = new Text();
+        this.labels = new Text[0];
+        this.total = new long[0];
+        this.left = new long[0];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, this.attribute);
+        out.writeDouble(this.entropy);
+        this.bucket.write(out);
+        out.writeDouble(this.threshold);
+        WritableUtils.writeVInt(out, this.labels.length);
+        for (int i = 0; i < this.labels.length; i ++) {
+            this.labels[i].write(out);
+            WritableUtils.writeVLong(out, this.total[i]);
+            WritableUtils.writeVLong(out, this.left[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        this.attribute = WritableUtils.readVInt(in);
+        this.entropy = in.readDouble();
+        this.bucket.readFields(in);
+        this.threshold = in.readDouble();
+        int n = WritableUtils.readVInt(in);
+        this.labels = new Text[n];
+        this.total = new long[n];
+        this.left = new long[n];
+        for (int i = 0; i < n; i ++) {
+            this.labels[i] = new Text();
+            this.labels[i].readFields(in);
+            this.total[i] = WritableUtils.readVLong(in);
+            this.left[i] = WritableUtils.readVLong(in);
+        }
+    }
+}
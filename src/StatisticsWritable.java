@@ -0,0 +1,130 @@
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is the split sufficient statistics of one attribute at one frontier node, passed from
+ * RFLevelWise's mappers to its reducers. It's a list of (bucket, label, count) triples, the bucket is the bin index
+ * of a continuous attribute or the category of a categorical one.
+ * Buckets and labels are passed as strings, because each mapper extends its dictionaries with the values it sees.
+ */
+public class StatisticsWritable implements Writable {
+    // The bucket of each triple.
+    private Text[] buckets;
+
+    // The label of each triple.
+    private Text[] labels;
+
+    // The weighted count of each triple.
+    private long[] counts;
+
+    // The number of triples.
+    private int size;
+
+    /**
+     * Constructor for empty statistics, also used by the framework before readFields().
+     */
+    public StatisticsWritable() {
+        this.buckets = new Text[0];
+        this.labels = new Text[0];
+        this.counts = new long[0];
+        this.size = 0;
+    }
+
+    /**
+     * Remove all triples, the arrays are kept for reuse.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Make sure one more triple can be added.
+     */
+    private void ensureCapacity() {
+        if (this.size < this.buckets.length) {
+            return;
+        }
+        int capacity = Math.max(16, this.buckets.length * 2);
+        this.buckets = Arrays.copyOf(this.buckets, capacity);
+        this.labels = Arrays.copyOf(this.labels, capacity);
+        this.counts = Arrays.copyOf(this.counts, capacity);
+        for (int i = this.size; i < capacity; i ++) {
+            this.buckets[i] = new Text();
+            this.labels[i] = new Text();
+        }
+    }
+
+    /**
+     * Add a triple.
+     * @param bucket The bucket.
+     * @param label The label.
+     * @param count The weighted count.
+     */
+    public void add(String bucket, String label, long count) {
+        ensureCapacity();
+        this.buckets[this.size].set(bucket);
+        this.labels[this.size].set(label);
+        this.counts[this.size] = count;
+        this.size ++;
+    }
+
+    /**
+     * @return The number of triples.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param i The index of the triple, from 0 to size() - 1.
+     * @return The bucket.
+     */
+    public Text getBucket(int i) {
+        return this.buckets[i];
+    }
+
+    /**
+     * @param i The index of the triple, from 0 to size() - 1.
+     * @return The label.
+     */
+    public Text getLabel(int i) {
+        return this.labels[i];
+    }
+
+    /**
+     * @param i The index of the triple, from 0 to size() - 1.
+     * @return The weighted count.
+     */
+    public long getCount(int i) {
+        return this.counts[i];
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, this.size);
+        for (int i = 0; i < this.size; i ++) {
+            this.buckets[i].write(out);
+            this.labels[i].write(out);
+            WritableUtils.writeVLong(out, this.counts[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        clear();
+        int n = WritableUtils.readVInt(in);
+        for (int i = 0; i < n; i ++) {
+            ensureCapacity();
+            this.buckets[this.size].readFields(in);
+            this.labels[this.size].readFields(in);
+            this.counts[this.size] = WritableUtils.readVLong(in);
+            this.size ++;
+        }
+    }
+}
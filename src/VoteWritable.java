@@ -0,0 +1,155 @@
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * This class is a tally of trees' votes for a test row, passed from RFMapper to RFReducer.
+ * A mapper's single vote is a tally of one label, the combiner merges them into one tally per row.
+ * Labels are passed as strings, because each mapper builds its own label dictionary.
+ *
+ * Labels and counts are kept in arrays that are reused when the tally is cleared or read again, so tallying
+ * doesn't allocate once every label has been seen.
+ */
+public class VoteWritable implements Writable {
+    // The voted labels, only the first size ones are used.
+    private Text[] labels;
+
+    // The number of votes for each label.
+    private int[] counts;
+
+    // The number of different labels voted.
+    private int size;
+
+    /**
+     * Constructor for an empty tally, also used by the framework before readFields().
+     */
+    public VoteWritable() {
+        this.labels = new Text[0];
+        this.counts = new int[0];
+        this.size = 0;
+    }
+
+    /**
+     * Remove all votes, the arrays are kept for reuse.
+     */
+    public void clear() {
+        this.size = 0;
+    }
+
+    /**
+     * Make sure one more label can be added.
+     */
+    private void ensureCapacity() {
+        if (this.size < this.labels.length) {
+            return;
+        }
+        int capacity = Math.max(4, this.labels.length * 2);
+        this.labels = Arrays.copyOf(this.labels, capacity);
+        this.counts = Arrays.copyOf(this.counts, capacity);
+        for (int i = this.size; i < capacity; i ++) {
+            this.labels[i] = new Text();
+        }
+    }
+
+    /**
+     * Add votes for a label, merged with the label's existing votes.
+     * @param label The voted label.
+     * @param count The number of votes for the label.
+     */
+    public void add(Text label, int count) {
+        // There are only a few labels, a linear search is cheaper than hashing.
+        for (int i = 0; i < this.size; i ++) {
+            if (this.labels[i].equals(label)) {
+                this.counts[i] += count;
+                return;
+            }
+        }
+        ensureCapacity();
+        this.labels[this.size].set(label);
+        this.counts[this.size] = count;
+        this.size ++;
+    }
+
+    /**
+     * Add all votes of another tally.
+     * @param other The other tally.
+     */
+    public void add(VoteWritable other) {
+        for (int i = 0; i < other.size; i ++) {
+            add(other.labels[i], other.counts[i]);
+        }
+    }
+
+    /**
+     * @return The number of different labels voted.
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * @param i The index of the label, from 0 to size() - 1.
+     * @return The voted label.
+     */
+    public Text getLabel(int i) {
+        return this.labels[i];
+    }
+
+    /**
+     * @param i The index of the label, from 0 to size() - 1.
+     * @return The number of votes for the label.
+     */
+    public int getCount(int i) {
+        return this.counts[i];
+    }
+
+    /**
+     * @return The total number of votes.
+     */
+    public int total() {
+        int total = 0;
+        for (int i = 0; i < this.size; i ++) {
+            total += this.counts[i];
+        }
+        return total;
+    }
+
+    /**
+     * @return The index of the label with the most votes, the first added label wins a tie. -1 if it's empty.
+     */
+    public int majority() {
+        int majority = -1;
+        for (int i = 0; i < this.size; i ++) {
+            if (majority < 0 || this.counts[i] > this.counts[majority]) {
+                majority = i;
+            }
+        }
+        return majority;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        WritableUtils.writeVInt(out, this.size);
+        for (int i = 0; i < this.size; i ++) {
+            this.labels[i].write(out);
+            WritableUtils.writeVInt(out, this.counts[i]);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        clear();
+        int n = WritableUtils.readVInt(in);
+        for (int i = 0; i < n; i ++) {
+            ensureCapacity();
+            this.labels[this.size].readFields(in);
+            this.counts[this.size] = WritableUtils.readVInt(in);
+            this.size ++;
+        }
+    }
+}